@@ -0,0 +1,143 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import hotelier.bench.Fixtures;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//synthetic catalogs for the benchmarks, written in the same json format HotelManager loads
+public class BenchmarkFixtures implements Fixtures {
+    private static final String BENCH_USER = "bench"; //every benchmark review is logged as this user
+
+    @Override
+    public HotelTarget newHotel(int reviews, int maxAgeMonths, long seed) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(json)) {
+            DatasetGenerator.writeHotel(writer, 1, Fixtures.cityName(0), Fixtures.hotelName(0, 0), reviews, maxAgeDays(maxAgeMonths), new Random(seed));
+        }
+        Hotel hotel = new Gson().fromJson(json.toString(), Hotel.class);
+        LocalDate today = LocalDate.now();
+        return new HotelTarget() {
+            private long lsn;
+
+            @Override
+            public double getLocalScore() {
+                return hotel.getLocalScore();
+            }
+
+            @Override
+            public void submitReview(double rate, int posizione, int pulizia, int servizio, int prezzo) {
+                hotel.submitReview(rate, posizione, pulizia, servizio, prezzo, today, ++lsn);
+            }
+
+            @Override
+            public Object snapshot() {
+                return hotel.snapshot();
+            }
+        };
+    }
+
+    @Override
+    public CatalogTarget newCatalog(int cities, int hotelsPerCity, int reviewsPerHotel, int maxAgeMonths, long seed) throws IOException {
+        Path directory = writeCatalog(cities, hotelsPerCity, reviewsPerHotel, maxAgeMonths, seed);
+        HotelManager hotelManager = newHotelManager(directory);
+        return new CatalogTarget() {
+            @Override
+            public Object getRankedHotelsByCity() {
+                return hotelManager.getRankedHotelsByCity();
+            }
+
+            @Override
+            public Object searchHotelByNameAndCity(String name, String city) {
+                return hotelManager.searchHotelByNameAndCity(name, city);
+            }
+
+            @Override
+            public List<?> searchHotelsByCity(String city) {
+                return hotelManager.searchHotelsByCity(city);
+            }
+
+            @Override
+            public boolean submitReview(String name, String city, double rate, int posizione, int pulizia, int servizio, int prezzo) throws IOException {
+                return hotelManager.submitReview(BENCH_USER, name, city, rate, posizione, pulizia, servizio, prezzo)
+                        != ReviewRequest.Status.HOTEL_NOT_FOUND;
+            }
+
+            @Override
+            public void close() throws IOException {
+                deleteDirectory(directory);
+            }
+        };
+    }
+
+    @Override
+    public UserTarget newUser(String username, String password) {
+        User user = new User(username, password, 0);
+        return user::validatePassword;
+    }
+
+    //writes hotels.json with reviews spread uniformly over the last maxAgeMonths months
+    public static Path writeCatalog(int cities, int hotelsPerCity, int reviewsPerHotel, int maxAgeMonths, long seed) throws IOException {
+        Path directory = Files.createTempDirectory("hotelier-bench");
+        Random random = new Random(seed);
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(directory.resolve("hotels.json")), StandardCharsets.UTF_8)))) {
+            writer.beginArray();
+            int id = 1;
+            for (int city = 0; city < cities; city++) {
+                for (int hotel = 0; hotel < hotelsPerCity; hotel++) {
+                    DatasetGenerator.writeHotel(writer, id++, Fixtures.cityName(city), Fixtures.hotelName(city, hotel), reviewsPerHotel,
+                            maxAgeDays(maxAgeMonths), random);
+                }
+            }
+            writer.endArray();
+        }
+        return directory;
+    }
+
+    //the catalog directory and everything the hotel manager wrote in it: snapshots, users and review log segments
+    public static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            //children before their directory
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static int maxAgeDays(int maxAgeMonths) {
+        return Math.max(1, maxAgeMonths * 30);
+    }
+
+    //reviews are submitted as BENCH_USER, registered in an otherwise empty users.json
+    public static HotelManager newHotelManager(Path directory) throws IOException {
+        Properties properties = new Properties();
+        Path users = directory.resolve("users.json");
+        Files.write(users, "{}".getBytes(StandardCharsets.UTF_8));
+        properties.setProperty("users.json.file.path", users.toString());
+        properties.setProperty("hotels.json.file.path", directory.resolve("hotels.json").toString());
+        properties.setProperty("review.log.file.path", directory.resolve("reviews.log").toString());
+        properties.setProperty("review.log.fsync", "never");
+        properties.setProperty("multicast.ip", "224.0.0.1");
+        properties.setProperty("multicast.port", "6789");
+        //keep the periodic tasks out of the measurements
+        properties.setProperty("save.period", String.valueOf(Long.MAX_VALUE / 2));
+        properties.setProperty("ranking.update.period", String.valueOf(Long.MAX_VALUE / 2));
+        MaintenanceScheduler scheduler = new MaintenanceScheduler(properties);
+        UserRegisterImpl userRegister = new UserRegisterImpl(properties, scheduler);
+        userRegister.registerUser(BENCH_USER, BENCH_USER);
+        return new HotelManager(new RankingUpdateManagerImpl(properties), userRegister, properties, scheduler);
+    }
+}
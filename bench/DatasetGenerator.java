@@ -0,0 +1,199 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import hotelier.bench.Fixtures;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+//synthetic hotels.json and users.json in the exact format the server loads, for benchmarks and soak tests.
+//usage: DatasetGenerator [out=.] [cities=20] [hotels=200] [zipf=1.0] [reviews=100000] [years=3] [users=1000] [seed=42]
+//hotels are spread over cities and reviews over hotels and users with a zipf distribution of the given exponent
+//(0 = uniform), review dates are uniform over the last years. every user's password is its username
+public class DatasetGenerator {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Invalid argument " + arg + ", expected name=value");
+                System.exit(1);
+            }
+            options.put(option[0], option[1]);
+        }
+        Path directory = Paths.get(options.getOrDefault("out", "."));
+        int cities = Integer.parseInt(options.getOrDefault("cities", "20"));
+        int hotels = Integer.parseInt(options.getOrDefault("hotels", "200"));
+        double zipf = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        long reviews = Long.parseLong(options.getOrDefault("reviews", "100000"));
+        int years = Integer.parseInt(options.getOrDefault("years", "3"));
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        Files.createDirectories(directory);
+        long start = System.currentTimeMillis();
+        writeCatalog(directory.resolve("hotels.json"), cities, hotels, zipf, reviews, years, random);
+        writeUsers(directory.resolve("users.json"), users, zipf, reviews, random);
+        System.out.println("Wrote " + hotels + " hotels in " + cities + " cities, " + reviews + " reviews and " + users +
+                " users to " + directory.toAbsolutePath() + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public static void writeCatalog(Path file, int cities, int hotels, double zipf, long reviews, int years, Random random) throws IOException {
+        if (hotels < cities) {
+            throw new IllegalArgumentException("Need at least one hotel per city");
+        }
+        int[] hotelsPerCity = allocate(hotels, cities, zipf);
+        //popularity rank is shuffled so the most reviewed hotels are spread over all cities
+        int[] reviewsPerHotel = sample(reviews, hotels, zipf, random);
+        shuffle(reviewsPerHotel, random);
+
+        int maxAgeDays = Math.max(1, years * 365);
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8)))) {
+            writer.beginArray();
+            int id = 1;
+            for (int city = 0; city < cities; city++) {
+                for (int hotel = 0; hotel < hotelsPerCity[city]; hotel++) {
+                    writeHotel(writer, id, Fixtures.cityName(city), Fixtures.hotelName(city, hotel), reviewsPerHotel[id - 1], maxAgeDays, random);
+                    id++;
+                }
+            }
+            writer.endArray();
+        }
+    }
+
+    //users.json map, review counters follow the same zipf spread as the catalog
+    public static void writeUsers(Path file, int users, double zipf, long reviews, Random random) throws IOException {
+        int[] reviewsPerUser = users == 0 ? new int[0] : sample(reviews, users, zipf, random);
+        Gson gson = new Gson();
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8)))) {
+            writer.beginObject();
+            for (int i = 0; i < users; i++) {
+                String username = "user" + i;
+                writer.name(username);
+                gson.toJson(new User(username, username, reviewsPerUser[i]), User.class, writer);
+            }
+            writer.endObject();
+        }
+    }
+
+    //one hotel with reviews dated up to maxAgeDays back, averages match the reviews like after real submissions
+    public static void writeHotel(JsonWriter writer, int id, String city, String name, int reviews, int maxAgeDays,
+                                  Random random) throws IOException {
+        long today = LocalDate.now().toEpochDay();
+        long[] dates = new long[reviews];
+        double[] scores = new double[reviews];
+        double rate = 0, posizione = 0, pulizia = 0, servizio = 0, prezzo = 0;
+        for (int i = 0; i < reviews; i++) {
+            dates[i] = today - random.nextInt(maxAgeDays);
+            int global = 1 + random.nextInt(5);
+            int position = 1 + random.nextInt(5);
+            int cleaning = 1 + random.nextInt(5);
+            int service = 1 + random.nextInt(5);
+            int price = 1 + random.nextInt(5);
+            rate += global;
+            posizione += position;
+            pulizia += cleaning;
+            servizio += service;
+            prezzo += price;
+            //same as Hotel.submitReview: global score plus half of the category scores
+            scores[i] = global + (position + cleaning + service + price) / 2.0;
+        }
+        //scores are independent of the date, sorting the dates alone keeps the list in submission order
+        Arrays.sort(dates);
+        int count = Math.max(1, reviews);
+
+        writer.beginObject();
+        writer.name("id").value(id);
+        writer.name("name").value(name);
+        writer.name("description").value("Un hotel di prova a " + city);
+        writer.name("city").value(city);
+        writer.name("phone").value(String.format("3%02d-%07d", random.nextInt(100), random.nextInt(10_000_000)));
+        writer.name("services").beginArray().value("Wi-Fi").endArray();
+        writer.name("rate").value(rate / count);
+        writer.name("posizione").value(posizione / count);
+        writer.name("pulizia").value(pulizia / count);
+        writer.name("servizio").value(servizio / count);
+        writer.name("prezzo").value(prezzo / count);
+        writer.name("reviewCount").value(reviews);
+        writer.name("reviews").beginArray();
+        for (int i = 0; i < reviews; i++) {
+            LocalDate date = LocalDate.ofEpochDay(dates[i]);
+            writer.beginObject();
+            writer.name("score").value(scores[i]);
+            //gson's reflective LocalDate layout, as found in hotels.json
+            writer.name("date").beginObject()
+                    .name("year").value(date.getYear())
+                    .name("month").value(date.getMonthValue())
+                    .name("day").value(date.getDayOfMonth())
+                    .endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    //splits total over buckets proportionally to 1/rank^exponent, every bucket gets at least one
+    private static int[] allocate(int total, int buckets, double exponent) {
+        double[] weights = zipfWeights(buckets, exponent);
+        int[] counts = new int[buckets];
+        int assigned = 0;
+        for (int i = 0; i < buckets; i++) {
+            counts[i] = 1 + (int) (weights[i] * (total - buckets));
+            assigned += counts[i];
+        }
+        //rounding leftovers go to the largest buckets
+        for (int i = 0; assigned < total; i = (i + 1) % buckets) {
+            counts[i]++;
+            assigned++;
+        }
+        return counts;
+    }
+
+    //draws total items, each landing in a bucket with zipf probability
+    private static int[] sample(long total, int buckets, double exponent, Random random) {
+        double[] cumulative = zipfWeights(buckets, exponent);
+        for (int i = 1; i < buckets; i++) {
+            cumulative[i] += cumulative[i - 1];
+        }
+        int[] counts = new int[buckets];
+        for (long i = 0; i < total; i++) {
+            int bucket = Arrays.binarySearch(cumulative, random.nextDouble());
+            bucket = bucket < 0 ? -bucket - 1 : bucket;
+            counts[Math.min(bucket, buckets - 1)]++;
+        }
+        return counts;
+    }
+
+    //normalized 1/rank^exponent
+    private static double[] zipfWeights(int buckets, double exponent) {
+        double[] weights = new double[buckets];
+        double sum = 0;
+        for (int i = 0; i < buckets; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+            sum += weights[i];
+        }
+        for (int i = 0; i < buckets; i++) {
+            weights[i] /= sum;
+        }
+        return weights;
+    }
+
+    private static void shuffle(int[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
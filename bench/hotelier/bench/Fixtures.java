@@ -0,0 +1,55 @@
+package hotelier.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+//bridge to the server classes: they live in the default package, which JMH benchmarks can't reference directly
+public interface Fixtures {
+
+    HotelTarget newHotel(int reviews, int maxAgeMonths, long seed) throws IOException;
+
+    CatalogTarget newCatalog(int cities, int hotelsPerCity, int reviewsPerHotel, int maxAgeMonths, long seed) throws IOException;
+
+    UserTarget newUser(String username, String password);
+
+    static Fixtures load() {
+        try {
+            return (Fixtures) Class.forName("BenchmarkFixtures").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkFixtures not on the classpath", e);
+        }
+    }
+
+    //names of the synthetic catalogs, DatasetGenerator writes its datasets with them too
+    static String cityName(int city) {
+        return "City" + city;
+    }
+
+    static String hotelName(int city, int hotel) {
+        return "Hotel " + cityName(city) + " " + hotel;
+    }
+
+    interface HotelTarget {
+        double getLocalScore();
+
+        void submitReview(double rate, int posizione, int pulizia, int servizio, int prezzo);
+
+        Object snapshot();
+    }
+
+    //close deletes the files the catalog was written to, with its review log
+    interface CatalogTarget extends Closeable {
+        Object getRankedHotelsByCity();
+
+        Object searchHotelByNameAndCity(String name, String city);
+
+        List<?> searchHotelsByCity(String city);
+
+        boolean submitReview(String name, String city, double rate, int posizione, int pulizia, int servizio, int prezzo) throws IOException;
+    }
+
+    interface UserTarget {
+        boolean validatePassword(String password);
+    }
+}
@@ -0,0 +1,46 @@
+package hotelier.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//local score and review insertion of a single hotel, by review history size and age
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HotelBenchmark {
+    @Param({"0", "100", "10000"})
+    public int reviewsPerHotel;
+
+    @Param({"1", "24", "120"})
+    public int maxAgeMonths;
+
+    private Fixtures.HotelTarget hotel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        hotel = Fixtures.load().newHotel(reviewsPerHotel, maxAgeMonths, 42);
+    }
+
+    @Benchmark
+    public double getLocalScore() {
+        return hotel.getLocalScore();
+    }
+
+    //every review invalidates the cached score, so this measures the incremental update of the month buckets
+    //plus one score computed from them
+    @Benchmark
+    public double submitReviewAndScore() {
+        hotel.submitReview(4, 3, 4, 5, 3);
+        return hotel.getLocalScore();
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return hotel.snapshot();
+    }
+}
@@ -0,0 +1,85 @@
+package hotelier.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//catalog wide lookups, rankings and review insertion on synthetic catalogs
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotelManagerBenchmark {
+    @Param({"20"})
+    public int cities;
+
+    @Param({"10", "1000"})
+    public int hotelsPerCity;
+
+    @Param({"0", "50"})
+    public int reviewsPerHotel;
+
+    @Param({"24"})
+    public int maxAgeMonths;
+
+    private Fixtures.CatalogTarget catalog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        catalog = Fixtures.load().newCatalog(cities, hotelsPerCity, reviewsPerHotel, maxAgeMonths, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        catalog.close();
+    }
+
+    @Benchmark
+    public Object getRankedHotelsByCity() {
+        return catalog.getRankedHotelsByCity();
+    }
+
+    @Benchmark
+    public Object searchHotelByNameAndCity() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int city = random.nextInt(cities);
+        return catalog.searchHotelByNameAndCity(Fixtures.hotelName(city, random.nextInt(hotelsPerCity)), Fixtures.cityName(city));
+    }
+
+    @Benchmark
+    public List<?> searchHotelsByCity() {
+        return catalog.searchHotelsByCity(Fixtures.cityName(ThreadLocalRandom.current().nextInt(cities)));
+    }
+
+    @Benchmark
+    public boolean submitReview() throws IOException {
+        return submitRandomReview();
+    }
+
+    //readers and a writer sharing the catalog, shows how much review insertion slows lookups down
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Object contendedSearchHotel() {
+        return searchHotelByNameAndCity();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean contendedSubmitReview() throws IOException {
+        return submitRandomReview();
+    }
+
+    private boolean submitRandomReview() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int city = random.nextInt(cities);
+        return catalog.submitReview(Fixtures.hotelName(city, random.nextInt(hotelsPerCity)), Fixtures.cityName(city),
+                1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(5));
+    }
+}
@@ -0,0 +1,26 @@
+package hotelier.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//password check done on every login
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserBenchmark {
+    private Fixtures.UserTarget user;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        user = Fixtures.load().newUser("bench", "password");
+    }
+
+    @Benchmark
+    public boolean validatePassword() {
+        return user.validatePassword("password");
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+//crash safe file replacement: the content goes to a temp file next to the target, is fsynced and then renamed over it,
+//so readers (and a restart after a crash) see either the whole old file or the whole new one, never a truncated mix
+public final class AtomicFiles {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    public interface BinaryContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFiles() {
+    }
+
+    public static void write(Path target, Content content) throws IOException {
+        writeBinary(target, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            content.writeTo(writer);
+            writer.flush();
+        });
+    }
+
+    public static void writeBinary(Path target, BinaryContent content) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path directory = absolute.getParent();
+        Path temp = directory.resolve(absolute.getFileName() + TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                //content must flush what it buffers but not close the stream, that would close the channel before the fsync
+                content.writeTo(Channels.newOutputStream(channel));
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(directory);
+    }
+
+    //deletes the temp files a crash left next to the targets isTarget accepts (by file name). must not run while one
+    //of those targets is being written, callers use it once at load
+    public static void deleteTempFiles(Path directory, Predicate<String> isTarget) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> leftovers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX) && isTarget.test(name.substring(0, name.length() - TEMP_SUFFIX.length()))) {
+                    leftovers.add(file);
+                }
+            }
+        }
+        for (Path leftover : leftovers) {
+            Files.deleteIfExists(leftover);
+            System.out.println("Deleted unfinished save " + leftover);
+        }
+    }
+
+    //makes the rename itself durable, not every platform lets a directory be opened so failures are ignored
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //the file content is already synced, only the rename may be lost on a power failure
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//length prefixed framing a client switches to with binary(), the text protocol stays the default for the CLI.
+//request frame: [int length][byte opcode][int requestId][fields], length counts everything after itself.
+//strings are [unsigned short length][utf-8 bytes], so names may contain commas and parentheses, scores are single bytes.
+//response frame: [int length][byte opcode][int requestId][utf-8 body], the body is the text response without END_OF_RESPONSE
+public final class BinaryProtocol {
+    public static final byte LOGIN = 1; //username, password
+    public static final byte LOGOUT = 2; //username
+    public static final byte SEARCH_HOTEL = 3; //hotel name, city
+    public static final byte SEARCH_ALL_HOTELS = 4; //city
+    public static final byte INSERT_REVIEW = 5; //hotel name, city, global, position, cleaning, service, price
+    public static final byte INSERT_REVIEWS = 6; //unsigned short count, then count INSERT_REVIEW field lists
+    public static final byte SHOW_MY_BADGES = 7; //no fields
+    public static final byte HOTEL_RANK = 8; //hotel name, city
+    public static final byte SEARCH_ALL_HOTELS_PAGE = 9; //city, int limit, offset or cursor (empty for the first page)
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+    //text command matching each opcode
+    private static final String[] COMMAND_NAMES = {null, "login", "logout", "searchHotel", "searchAllHotels",
+            "insertReview", "insertReviews", "showMyBadges", "hotelRank", "searchAllHotels"};
+    private static final int HEADER_LENGTH = 4 + 1 + 4;
+    //handlers end their text with println (platform separator), pre-rendered responses with '\n'
+    private static final byte[] END_OF_RESPONSE_LINE = Responses.encode(Responses.END_OF_RESPONSE + "\n");
+    private static final byte[] END_OF_RESPONSE_PRINTLN = Responses.encode(Responses.END_OF_RESPONSE + System.lineSeparator());
+
+    private BinaryProtocol() {
+    }
+
+    public static String readString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        if (length > frame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    //null for unknown opcodes
+    public static String commandName(byte opcode) {
+        return opcode > 0 && opcode < COMMAND_NAMES.length ? COMMAND_NAMES[opcode] : null;
+    }
+
+    //false when the declared frame length can't be a valid request
+    public static boolean isValidLength(int length) {
+        return length >= HEADER_LENGTH - 4 && length <= MAX_FRAME_LENGTH;
+    }
+
+    //collects the text of one response and writes it out as a single frame, reused for every request of a connection
+    static class ResponseFrame extends ByteArrayOutputStream {
+        void begin(byte opcode, int requestId) {
+            reset();
+            //length is patched in finish
+            write(0);
+            write(0);
+            write(0);
+            write(0);
+            write(opcode);
+            write(requestId >>> 24);
+            write(requestId >>> 16);
+            write(requestId >>> 8);
+            write(requestId);
+        }
+
+        //drops the END_OF_RESPONSE line, fills in the length and writes the frame with a single call
+        void finish(OutputStream target) throws IOException {
+            if (endsWith(END_OF_RESPONSE_PRINTLN)) {
+                count -= END_OF_RESPONSE_PRINTLN.length;
+            } else if (endsWith(END_OF_RESPONSE_LINE)) {
+                count -= END_OF_RESPONSE_LINE.length;
+            }
+            int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            target.write(buf, 0, count);
+        }
+
+        private boolean endsWith(byte[] suffix) {
+            if (count - HEADER_LENGTH < suffix.length) {
+                return false;
+            }
+            for (int i = 0; i < suffix.length; i++) {
+                if (buf[count - suffix.length + i] != suffix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
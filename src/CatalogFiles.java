@@ -0,0 +1,355 @@
+import com.google.gson.Gson;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//the hotel catalog on disk: hotels.json (import/export, what the project always shipped) or a binary snapshot the
+//server maps into memory and serves from right away. the binary file is big endian:
+//  [int MAGIC][int VERSION][int hotel count] then per hotel
+//  [int id][str name][str description][str city][str phone][int service count, -1 for none][str service]...
+//  [double rate][double posizione][double pulizia][double servizio][double prezzo][int reviewCount][long reviewLogLsn]
+//  [double local score][long epoch day of that score][int review count][review count x (double score, int epoch day)]
+//strings are [int length][utf-8 bytes], length -1 for null. reviews stay in the mapping until a hotel changes and
+//a same day restart reuses the saved local scores, so neither loading nor the first ranking touch review history.
+//a segments directory holds one such snapshot per city, named after the url encoded city.
+//a mapped file is never replaced: windows refuses to rename over or delete a file while it is mapped, and hotels
+//loaded from it keep reading their reviews from the mapping. every save writes the next generation <file>.<n> next
+//to it (the plain file name is generation 0), loads pick the newest one and older generations are deleted once the
+//platform lets go of them, retried on every save and at load.
+//usage: CatalogFiles toBinary hotels.json hotels.bin | CatalogFiles toJson <hotels.bin or segments directory> hotels.json
+public final class CatalogFiles {
+    public static final int REVIEW_BYTES = 8 + 4;
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final int MAGIC = 0x48544C53; //"HTLS"
+    private static final int VERSION = 1;
+
+    private CatalogFiles() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("toBinary") || args[0].equals("toJson"))) {
+            System.err.println("Usage: CatalogFiles toBinary <hotels.json> <hotels.bin> | toJson <hotels.bin or segments directory> <hotels.json>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        List<Hotel> hotels = new ArrayList<>();
+        if (args[0].equals("toBinary")) {
+            readJson(source, Runtime.getRuntime().availableProcessors(), hotels::add);
+            //a new generation, so a server configured with this snapshot picks it up over any older one
+            target = writeSnapshot(target, hotels);
+        } else {
+            if (Files.isDirectory(source)) {
+                readSegments(source, hotels::add);
+            } else {
+                Path latest = latestSnapshot(source);
+                readBinary(latest != null ? latest : source, hotels::add);
+            }
+            writeJson(target, hotels);
+        }
+        System.out.println("Converted " + hotels.size() + " hotels from " + source + " to " + target + " in " +
+                (System.currentTimeMillis() - start) + " ms");
+    }
+
+    //hands every hotel to sink in file order, threads > 1 binds them in parallel
+    public static void readJson(Path file, int threads, Consumer<Hotel> sink) throws IOException {
+        JsonLoader.readArray(file, Hotel.class, threads, sink);
+    }
+
+    //hotels must not be shared or must be copies, stored reviews are decoded in place
+    public static void writeJson(Path file, List<Hotel> hotels) throws IOException {
+        for (Hotel hotel : hotels) {
+            hotel.decodeStoredReviews();
+        }
+        Gson gson = new Gson();
+        AtomicFiles.write(file, writer -> gson.toJson(hotels, writer));
+    }
+
+    //maps the file read only, hotels keep their reviews in the mapping. a mapping is capped at 2GB
+    public static void readBinary(Path file, Consumer<Hotel> sink) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Catalog snapshot " + file + " is larger than 2GB, load it from JSON instead");
+            }
+            //stays valid after the channel is closed, saves write a new generation instead of touching this file
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a catalog snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported catalog snapshot version " + version + " in " + file);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                sink.accept(readHotel(buffer));
+            }
+        } catch (RuntimeException e) {
+            //BufferUnderflowException and friends, the file is truncated or corrupt
+            throw new IOException("Corrupt catalog snapshot " + file, e);
+        }
+    }
+
+    //newest generation of the snapshot, null if there is none yet
+    public static Path latestSnapshot(Path file) throws IOException {
+        String base = file.getFileName().toString();
+        TreeMap<Long, Path> generations = listGenerations(directoryOf(file), base::equals).get(base);
+        return generations == null ? null : generations.lastEntry().getValue();
+    }
+
+    //writes the next generation of the snapshot and returns it, hotels must not be shared or must be copies
+    public static Path writeSnapshot(Path file, List<Hotel> hotels) throws IOException {
+        Path directory = directoryOf(file);
+        String base = file.getFileName().toString();
+        Path written = writeGeneration(directory, base, listGenerations(directory, base::equals).get(base), hotels);
+        deleteOldGenerations(directory, base::equals);
+        return written;
+    }
+
+    //writes the next generation of the city's segment, hotels must not be shared or must be copies
+    public static void writeSegment(Path directory, String city, List<Hotel> hotels) throws IOException {
+        String base = segmentName(city);
+        writeGeneration(directory, base, listGenerations(directory, base::equals).get(base), hotels);
+    }
+
+    //best effort, generations still mapped on windows stay until a later call
+    public static void deleteOldSegments(Path directory) throws IOException {
+        deleteOldGenerations(directory, CatalogFiles::isSegmentName);
+    }
+
+    //drops what a crash can leave next to the snapshot: the temp file of an unfinished save and generations a newer one
+    //replaced before they could be deleted. call once the catalog is loaded, only the newest generation is mapped then
+    public static void deleteLeftovers(Path file) throws IOException {
+        Path directory = directoryOf(file);
+        String base = file.getFileName().toString();
+        deleteOldGenerations(directory, base::equals);
+        AtomicFiles.deleteTempFiles(directory, name -> baseOf(name, base::equals) != null);
+    }
+
+    //same as deleteLeftovers for every city segment in the directory
+    public static void deleteSegmentLeftovers(Path directory) throws IOException {
+        deleteOldSegments(directory);
+        AtomicFiles.deleteTempFiles(directory, name -> baseOf(name, CatalogFiles::isSegmentName) != null);
+    }
+
+    //true if the directory holds at least one city segment
+    public static boolean hasSegments(Path directory) throws IOException {
+        return !listSegments(directory).isEmpty();
+    }
+
+    //maps the newest generation of every city segment in the directory, in file name order
+    public static void readSegments(Path directory, Consumer<Hotel> sink) throws IOException {
+        for (Path segment : listSegments(directory)) {
+            readBinary(segment, sink);
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        for (TreeMap<Long, Path> generations : listGenerations(directory, CatalogFiles::isSegmentName).values()) {
+            segments.add(generations.lastEntry().getValue());
+        }
+        return segments;
+    }
+
+    //any city name makes a valid file name
+    private static String segmentName(String city) {
+        try {
+            return URLEncoder.encode(city, "UTF-8") + SEGMENT_SUFFIX;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isSegmentName(String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static Path directoryOf(Path file) {
+        return file.toAbsolutePath().getParent();
+    }
+
+    //base name -> generation -> file, for every file in the directory named <base> or <base>.<generation>.
+    //compared by name rather than with a glob, url encoded city names can hold glob characters
+    private static Map<String, TreeMap<Long, Path>> listGenerations(Path directory, Predicate<String> isBase) throws IOException {
+        Map<String, TreeMap<Long, Path>> generations = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return generations;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String base = baseOf(name, isBase);
+                if (base == null) {
+                    continue;
+                }
+                long generation = base.length() == name.length() ? 0 : Long.parseLong(name.substring(base.length() + 1));
+                generations.computeIfAbsent(base, k -> new TreeMap<>()).put(generation, file);
+            }
+        }
+        return generations;
+    }
+
+    //the base of a file named <base> or <base>.<generation>, null for any other file
+    private static String baseOf(String name, Predicate<String> isBase) {
+        if (isBase.test(name)) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || !isGeneration(name.substring(dot + 1)) || !isBase.test(name.substring(0, dot))) {
+            return null;
+        }
+        return name.substring(0, dot);
+    }
+
+    private static boolean isGeneration(String suffix) {
+        if (suffix.isEmpty() || suffix.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (suffix.charAt(i) < '0' || suffix.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //a new file name, nothing can have it mapped
+    private static Path writeGeneration(Path directory, String base, TreeMap<Long, Path> generations, List<Hotel> hotels) throws IOException {
+        long generation = generations == null ? 1 : generations.lastKey() + 1;
+        Path file = directory.resolve(base + "." + generation);
+        writeBinary(file, hotels);
+        return file;
+    }
+
+    private static void deleteOldGenerations(Path directory, Predicate<String> isBase) throws IOException {
+        for (TreeMap<Long, Path> generations : listGenerations(directory, isBase).values()) {
+            for (Path old : generations.headMap(generations.lastKey()).values()) {
+                try {
+                    Files.deleteIfExists(old);
+                } catch (IOException e) {
+                    //still mapped, windows only lets go once the hotels reading from it are gone
+                }
+            }
+        }
+    }
+
+    private static void writeBinary(Path file, List<Hotel> hotels) throws IOException {
+        AtomicFiles.writeBinary(file, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hotels.size());
+            for (Hotel hotel : hotels) {
+                writeHotel(out, hotel);
+            }
+            out.flush();
+        });
+    }
+
+    private static Hotel readHotel(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        String name = readString(buffer);
+        String description = readString(buffer);
+        String city = readString(buffer);
+        String phone = readString(buffer);
+        int serviceCount = buffer.getInt();
+        List<String> services = null;
+        if (serviceCount >= 0) {
+            services = new ArrayList<>(serviceCount);
+            for (int i = 0; i < serviceCount; i++) {
+                services.add(readString(buffer));
+            }
+        }
+        double rate = buffer.getDouble();
+        double posizione = buffer.getDouble();
+        double pulizia = buffer.getDouble();
+        double servizio = buffer.getDouble();
+        double prezzo = buffer.getDouble();
+        int reviewCount = buffer.getInt();
+        long reviewLogLsn = buffer.getLong();
+        double localScore = buffer.getDouble();
+        long localScoreDay = buffer.getLong();
+        int storedReviews = buffer.getInt();
+        //the hotel's own view of its reviews, nothing is decoded here
+        ByteBuffer reviews = buffer.slice();
+        reviews.limit(storedReviews * REVIEW_BYTES);
+        buffer.position(buffer.position() + storedReviews * REVIEW_BYTES);
+        return new Hotel(id, name, description, city, phone, services, rate, posizione, pulizia, servizio, prezzo,
+                reviewCount, reviewLogLsn, reviews.asReadOnlyBuffer(), localScore, localScoreDay);
+    }
+
+    private static void writeHotel(DataOutputStream out, Hotel hotel) throws IOException {
+        out.writeInt(hotel.getId());
+        writeString(out, hotel.getName());
+        writeString(out, hotel.getDescription());
+        writeString(out, hotel.getCity());
+        writeString(out, hotel.getPhone());
+        List<String> services = hotel.getServices();
+        out.writeInt(services == null ? -1 : services.size());
+        if (services != null) {
+            for (String service : services) {
+                writeString(out, service);
+            }
+        }
+        out.writeDouble(hotel.getRate());
+        out.writeDouble(hotel.getPosizione());
+        out.writeDouble(hotel.getPulizia());
+        out.writeDouble(hotel.getServizio());
+        out.writeDouble(hotel.getPrezzo());
+        out.writeInt(hotel.getReviewCount());
+        out.writeLong(hotel.getReviewLogLsn());
+        //computed today unless the copy already had it cached, a same day restart skips the computation.
+        //the day is read first so a save crossing midnight labels the score too early and it gets recomputed
+        long today = LocalDate.now().toEpochDay();
+        out.writeDouble(hotel.getLocalScore());
+        out.writeLong(today);
+        hotel.writeReviews(out);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
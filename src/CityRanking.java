@@ -0,0 +1,34 @@
+import java.util.Collections;
+import java.util.List;
+
+//ranking of one city as published by a ranking pass, never modified after construction
+public class CityRanking {
+    private final String city;
+    private final long version; //ranking snapshot version that produced this list
+    private final List<HotelSnapshot> hotels; //sorted by local score, best first
+    private final byte[] searchAllHotelsResponse; //rendered when the ranking is published, searchAllHotels writes it as is
+
+    public CityRanking(String city, long version, List<HotelSnapshot> hotels) {
+        this.city = city;
+        this.version = version;
+        this.hotels = Collections.unmodifiableList(hotels);
+        this.searchAllHotelsResponse = Responses.searchAllHotels(this.hotels);
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<HotelSnapshot> getHotels() {
+        return hotels;
+    }
+
+    //shared by all readers, must not be modified
+    public byte[] getSearchAllHotelsResponse() {
+        return searchAllHotelsResponse;
+    }
+}
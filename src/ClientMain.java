@@ -1,7 +1,10 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.rmi.Naming;
+import java.util.ArrayDeque;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Scanner;
 
 public class ClientMain {
@@ -9,6 +12,7 @@ public class ClientMain {
     private static RankingUpdateManager rankingUpdateManager;
     private static MulticastReceiver multicastReceiver;
     private static final String END_OF_RESPONSE = "END_OF_RESPONSE";
+    private static final int PIPELINE_WINDOW = 64; //max unanswered commands while running a script
     private static boolean isLoggedIn = false;
     private static Properties properties;
 
@@ -29,8 +33,14 @@ public class ClientMain {
             int tcpPort = Integer.parseInt(properties.getProperty("tcp.port"));
 
             try (Socket socket = new Socket(tcpHost, tcpPort);
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+
+                //ClientMain <script>: run the commands of a file instead of reading them from the terminal
+                if (args.length > 0) {
+                    runScript(args[0], socket, in, listener);
+                    System.exit(0);
+                }
 
                 while (true) {
                     System.out.print("> ");
@@ -54,8 +64,7 @@ public class ClientMain {
                         handleLogin(input, out, in);
                     } else if (input.startsWith("logout(")) {
                         handleLogout(input, out, in);
-                    } else if (input.startsWith("searchHotel(") || input.startsWith("searchAllHotels(") ||
-                            input.startsWith("insertReview(") || input.startsWith("showMyBadges(")) {
+                    } else if (isTCPRequest(input)) {
                         handleTCPRequest(input, out, in);
                     } else {
                         System.out.println("Unknown command");
@@ -68,6 +77,99 @@ public class ClientMain {
         }
     }
 
+    private static boolean isTCPRequest(String input) {
+        return input.startsWith("searchHotel(") || input.startsWith("searchAllHotels(") ||
+                input.startsWith("insertReview(") || input.startsWith("insertReviews(") ||
+                input.startsWith("showMyBadges(") || input.startsWith("hotelRank(");
+    }
+
+    //sends the tcp commands of a script without waiting for each response (up to PIPELINE_WINDOW ahead), responses
+    //are printed in command order. any other command first waits for the pending responses, so it sees the login state
+    private static void runScript(String scriptPath, Socket socket, BufferedReader in, RankingUpdateListenerImpl listener) throws IOException {
+        PrintWriter pipelineOut = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+        Queue<String> pending = new ArrayDeque<>();
+        try (BufferedReader script = new BufferedReader(new InputStreamReader(new FileInputStream(scriptPath), StandardCharsets.UTF_8))) {
+            String input;
+            while ((input = script.readLine()) != null) {
+                if (input.trim().isEmpty()) {
+                    continue;
+                }
+                if (isTCPRequest(input) || input.startsWith("login(") || input.startsWith("logout(")) {
+                    pipelineOut.println(input);
+                    pending.add(input);
+                    if (pending.size() >= PIPELINE_WINDOW) {
+                        pipelineOut.flush();
+                        printScriptResponse(pending.poll(), in);
+                    }
+                    continue;
+                }
+
+                pipelineOut.flush();
+                while (!pending.isEmpty()) {
+                    printScriptResponse(pending.poll(), in);
+                }
+                if (input.startsWith("register(")) {
+                    handleRegister(input);
+                } else if (input.startsWith("subscribe(") || input.startsWith("unsubscribe(")) {
+                    if (!isLoggedIn) {
+                        System.out.println("User needs to be logged in to " + input.substring(0, input.indexOf('(')) + " for updates");
+                    } else if (input.startsWith("subscribe(")) {
+                        handleSubscribe(input, listener);
+                    } else {
+                        handleUnsubscribe(input, listener);
+                    }
+                } else {
+                    System.out.println("Unknown command");
+                }
+            }
+        }
+        pipelineOut.flush();
+        while (!pending.isEmpty()) {
+            printScriptResponse(pending.poll(), in);
+        }
+    }
+
+    private static void printScriptResponse(String input, BufferedReader in) throws IOException {
+        String response = readResponse(in);
+        System.out.println("> " + input);
+        System.out.println(response);
+        if (input.startsWith("login(")) {
+            updateLoginState(response);
+        } else if (input.startsWith("logout(")) {
+            updateLogoutState(response);
+        }
+    }
+
+    private static String readResponse(BufferedReader in) throws IOException {
+        StringBuilder responseBuilder = new StringBuilder();
+        String response;
+        while ((response = in.readLine()) != null) {
+            if (response.equals(END_OF_RESPONSE)) {
+                break;
+            }
+            responseBuilder.append(response).append("\n");
+        }
+        return responseBuilder.toString().trim();
+    }
+
+    private static void updateLoginState(String response) {
+        isLoggedIn = response.contains("Login successful");
+
+        if (isLoggedIn) {
+            multicastReceiver = new MulticastReceiver();
+            multicastReceiver.startListening();
+        }
+    }
+
+    private static void updateLogoutState(String response) {
+        isLoggedIn = !response.contains("Logout successful");
+
+        if (!isLoggedIn && multicastReceiver != null) {
+            multicastReceiver.stopListening();
+            multicastReceiver = null;
+        }
+    }
+
     private static void loadProperties() {
         properties = new Properties();
         try (InputStream input = new FileInputStream("client-config.properties")) {
@@ -112,22 +214,9 @@ public class ClientMain {
             String username = args[0];
             String password = args[1];
             out.println("login(" + username + "," + password + ")");
-            StringBuilder responseBuilder = new StringBuilder();
-            String response;
-            while ((response = in.readLine()) != null) {
-                if (response.equals(END_OF_RESPONSE)) {
-                    break;
-                }
-                responseBuilder.append(response).append("\n");
-            }
-            response = responseBuilder.toString().trim();
+            String response = readResponse(in);
             System.out.println(response);
-            isLoggedIn = response.contains("Login successful");
-
-            if (isLoggedIn) {
-                multicastReceiver = new MulticastReceiver();
-                multicastReceiver.startListening();
-            }
+            updateLoginState(response);
         } catch (Exception e) {
             System.err.println("Login exception: " + e.toString());
             e.printStackTrace();
@@ -137,22 +226,9 @@ public class ClientMain {
     private static void handleLogout(String input, PrintWriter out, BufferedReader in) {
         try {
             out.println(input);
-            StringBuilder responseBuilder = new StringBuilder();
-            String response;
-            while ((response = in.readLine()) != null) {
-                if (response.equals(END_OF_RESPONSE)) {
-                    break;
-                }
-                responseBuilder.append(response).append("\n");
-            }
-            response = responseBuilder.toString().trim();
+            String response = readResponse(in);
             System.out.println(response);
-            isLoggedIn = !response.contains("Logout successful");
-
-            if (!isLoggedIn && multicastReceiver != null) {
-                multicastReceiver.stopListening();
-                multicastReceiver = null;
-            }
+            updateLogoutState(response);
         } catch (Exception e) {
             System.err.println("Logout exception: " + e.toString());
             e.printStackTrace();
@@ -186,16 +262,7 @@ public class ClientMain {
     private static void handleTCPRequest(String input, PrintWriter out, BufferedReader in) {
         try {
             out.println(input);
-            StringBuilder responseBuilder = new StringBuilder();
-            String response;
-            while ((response = in.readLine()) != null) {
-                if (response.equals(END_OF_RESPONSE)) {
-                    break;
-                }
-                responseBuilder.append(response).append("\n");
-            }
-            response = responseBuilder.toString().trim();
-            System.out.println(response);
+            System.out.println(readResponse(in));
         } catch (Exception e) {
             System.err.println("TCP request exception: " + e.toString());
             e.printStackTrace();
@@ -1,6 +1,13 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Hotel {
     private int id;
@@ -15,7 +22,57 @@ public class Hotel {
     private double servizio;
     private double prezzo;
     private int reviewCount;
-    private List<Review> reviews;
+    private ReviewColumns reviews;
+    private long reviewLogLsn; //lsn of the last review log record applied to this hotel
+    //reviews still in the mapped catalog snapshot (CatalogFiles.REVIEW_BYTES each), decoded into reviews on first change
+    private transient ByteBuffer storedReviews;
+    //explicit lock instead of synchronized so virtual threads waiting on a review don't pin their carrier
+    private final transient ReentrantLock lock = new ReentrantLock();
+    //review scores summed per month (proleptic month -> score sum per day of month), built lazily from reviews
+    private transient TreeMap<Long, double[]> monthlyScores;
+    //scores of months older than SCORE_HORIZON_MONTHS, they all get the same weight so a single sum is enough
+    private transient double foldedScore;
+    private transient long foldedBeforeMonth = Long.MIN_VALUE;
+    //local score only changes when a review arrives or the day changes
+    private transient double cachedLocalScore;
+    private transient long cachedLocalScoreDay = Long.MIN_VALUE;
+    //searchHotel response, dropped whenever a review changes the hotel
+    private transient byte[] searchHotelResponse;
+    //from this age on the weight is constant in double precision (tanh(19.2) == 1.0)
+    private static final int SCORE_HORIZON_MONTHS = 20;
+    //weight of a review by age in months, tanh is far too slow to call for every bucket
+    private static final double[] REVIEW_WEIGHTS = new double[SCORE_HORIZON_MONTHS + 1];
+
+    static {
+        for (int monthsOld = 0; monthsOld <= SCORE_HORIZON_MONTHS; monthsOld++) {
+            REVIEW_WEIGHTS[monthsOld] = 1.2 - Math.tanh(monthsOld + 0.2);
+        }
+    }
+
+    public Hotel() {
+    }
+
+    //hotel read from a binary catalog snapshot, localScore is the score it had on localScoreDay
+    Hotel(int id, String name, String description, String city, String phone, List<String> services, double rate,
+          double posizione, double pulizia, double servizio, double prezzo, int reviewCount, long reviewLogLsn,
+          ByteBuffer storedReviews, double localScore, long localScoreDay) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.city = city;
+        this.phone = phone;
+        this.services = services;
+        this.rate = rate;
+        this.posizione = posizione;
+        this.pulizia = pulizia;
+        this.servizio = servizio;
+        this.prezzo = prezzo;
+        this.reviewCount = reviewCount;
+        this.reviewLogLsn = reviewLogLsn;
+        this.storedReviews = storedReviews;
+        this.cachedLocalScore = localScore;
+        this.cachedLocalScoreDay = localScoreDay;
+    }
 
     public int getId() {
         return id;
@@ -69,7 +126,44 @@ public class Hotel {
         return reviewCount;
     }
 
-    public synchronized void submitReview(double rate, int posizione, int pulizia, int servizio, int prezzo) {
+    public long getReviewLogLsn() {
+        lock.lock();
+        try {
+            return reviewLogLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //applies a review logged with the given lsn, returns false if this hotel already contains it (log replay)
+    public boolean submitReview(double rate, int posizione, int pulizia, int servizio, int prezzo, LocalDate date, long lsn) {
+        lock.lock();
+        try {
+            return applyReview(rate, posizione, pulizia, servizio, prezzo, date, lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //applies reviews logged with consecutive lsns starting at firstLsn under a single lock acquisition
+    public void submitReviews(List<ReviewRequest> batch, LocalDate date, long firstLsn) {
+        lock.lock();
+        try {
+            long lsn = firstLsn;
+            for (ReviewRequest review : batch) {
+                applyReview(review.getRate(), review.getPosizione(), review.getPulizia(), review.getServizio(),
+                        review.getPrezzo(), date, lsn++);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //must be called with lock held
+    private boolean applyReview(double rate, int posizione, int pulizia, int servizio, int prezzo, LocalDate date, long lsn) {
+        if (lsn <= reviewLogLsn) {
+            return false;
+        }
         //update average values
         this.rate = (this.rate * this.reviewCount + rate) / (this.reviewCount + 1);
         this.posizione = (this.posizione * this.reviewCount + posizione) / (this.reviewCount + 1);
@@ -77,41 +171,227 @@ public class Hotel {
         this.servizio = (this.servizio * this.reviewCount + servizio) / (this.reviewCount + 1);
         this.prezzo = (this.prezzo * this.reviewCount + prezzo) / (this.reviewCount + 1);
         //save review for local score calculations. general score is valued over categories (0.5x)
-        this.reviews.add(new Review(rate + (posizione + pulizia + servizio + prezzo) / 2.0, LocalDate.now()));
+        double score = rate + (posizione + pulizia + servizio + prezzo) / 2.0;
+        ensureReviews();
+        ensureMonthlyScores();
+        if (this.reviews == null) {
+            this.reviews = new ReviewColumns();
+        }
+        this.reviews.add(score, date.toEpochDay());
+        addToMonthlyScores(score, date);
         this.reviewCount++;
+        cachedLocalScoreDay = Long.MIN_VALUE;
+        searchHotelResponse = null;
+        reviewLogLsn = lsn;
+        return true;
     }
 
     public double getLocalScore() {
-        double totalScore = 0;
         LocalDate now = LocalDate.now();
+        lock.lock();
+        try {
+            long today = now.toEpochDay();
+            if (cachedLocalScoreDay != today) {
+                cachedLocalScore = computeLocalScore(now);
+                cachedLocalScoreDay = today;
+            }
+            return cachedLocalScore;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        for (Review review : reviews) {
-            long monthsOld = ChronoUnit.MONTHS.between(review.getDate(), now);
-            // recent reviews -> higher weight
-            //double weight = 1.0 / (1 + daysOld);
-            double weight = 1.2 - Math.tanh(monthsOld + 0.2);
-            totalScore += review.getScore() * weight;
-            //System.out.println(name + "- weight: " + weight);
+    //must be called with lock held
+    private double computeLocalScore(LocalDate now) {
+        ensureMonthlyScores();
+        long nowMonth = prolepticMonth(now);
+        int nowDay = now.getDayOfMonth();
+
+        //fold months that reached the constant weight so the bucket count stays bounded
+        Iterator<Map.Entry<Long, double[]>> oldMonths = monthlyScores.headMap(nowMonth - SCORE_HORIZON_MONTHS).entrySet().iterator();
+        while (oldMonths.hasNext()) {
+            for (double dayScore : oldMonths.next().getValue()) {
+                foldedScore += dayScore;
+            }
+            oldMonths.remove();
+        }
+        foldedBeforeMonth = Math.max(foldedBeforeMonth, nowMonth - SCORE_HORIZON_MONTHS);
+
+        double totalScore = foldedScore * reviewWeight(SCORE_HORIZON_MONTHS);
+        for (Map.Entry<Long, double[]> month : monthlyScores.entrySet()) {
+            long monthsBetween = nowMonth - month.getKey();
+            double[] dayScores = month.getValue();
+            //days before, on and after today's day of month each share one weight
+            double beforeToday = 0;
+            double afterToday = 0;
+            for (int day = 1; day < nowDay; day++) {
+                beforeToday += dayScores[day];
+            }
+            for (int day = nowDay + 1; day < dayScores.length; day++) {
+                afterToday += dayScores[day];
+            }
+            totalScore += beforeToday * reviewWeight(monthsOld(monthsBetween, nowDay, nowDay - 1))
+                    + dayScores[nowDay] * reviewWeight(monthsOld(monthsBetween, nowDay, nowDay))
+                    + afterToday * reviewWeight(monthsOld(monthsBetween, nowDay, nowDay + 1));
         }
         // logarithmic factor to account for review count
         double reviewFactor = Math.log(1 + reviewCount);
         return totalScore * reviewFactor;
     }
 
+    //same truncation as ChronoUnit.MONTHS.between(reviewDate, now)
+    private static long monthsOld(long monthsBetween, int nowDay, int reviewDay) {
+        return (monthsBetween * 32 + nowDay - reviewDay) / 32;
+    }
+
+    // recent reviews -> higher weight
+    private static double reviewWeight(long monthsOld) {
+        if (monthsOld >= 0 && monthsOld < REVIEW_WEIGHTS.length) {
+            return REVIEW_WEIGHTS[(int) monthsOld];
+        }
+        if (monthsOld > 0) {
+            return REVIEW_WEIGHTS[SCORE_HORIZON_MONTHS];
+        }
+        return 1.2 - Math.tanh(monthsOld + 0.2);
+    }
+
+    //must be called with lock held
+    private void ensureMonthlyScores() {
+        if (monthlyScores != null) {
+            return;
+        }
+        monthlyScores = new TreeMap<>();
+        if (storedReviews != null) {
+            //straight from the snapshot, ranking a freshly loaded catalog copies no review
+            for (int offset = 0; offset < storedReviews.limit(); offset += CatalogFiles.REVIEW_BYTES) {
+                addToMonthlyScores(storedReviews.getDouble(offset), LocalDate.ofEpochDay(storedReviews.getInt(offset + 8)));
+            }
+            return;
+        }
+        if (reviews != null) {
+            for (int i = 0; i < reviews.size(); i++) {
+                addToMonthlyScores(reviews.getScore(i), LocalDate.ofEpochDay(reviews.getEpochDay(i)));
+            }
+        }
+    }
+
+    //must be called with lock held
+    private void ensureReviews() {
+        if (storedReviews == null) {
+            return;
+        }
+        ReviewColumns decoded = new ReviewColumns(storedReviews.limit() / CatalogFiles.REVIEW_BYTES + 1);
+        for (int offset = 0; offset < storedReviews.limit(); offset += CatalogFiles.REVIEW_BYTES) {
+            decoded.add(storedReviews.getDouble(offset), storedReviews.getInt(offset + 8));
+        }
+        reviews = decoded;
+        storedReviews = null;
+    }
+
+    //decodes reviews still in the mapped snapshot, gson only sees the reviews field
+    public void decodeStoredReviews() {
+        lock.lock();
+        try {
+            ensureReviews();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //[int count][count x (double score, int epoch day)], snapshot reviews are copied without decoding them
+    public void writeReviews(DataOutputStream out) throws IOException {
+        lock.lock();
+        try {
+            if (storedReviews != null) {
+                out.writeInt(storedReviews.limit() / CatalogFiles.REVIEW_BYTES);
+                for (int offset = 0; offset < storedReviews.limit(); offset += CatalogFiles.REVIEW_BYTES) {
+                    out.writeDouble(storedReviews.getDouble(offset));
+                    out.writeInt(storedReviews.getInt(offset + 8));
+                }
+                return;
+            }
+            out.writeInt(reviews == null ? 0 : reviews.size());
+            if (reviews != null) {
+                for (int i = 0; i < reviews.size(); i++) {
+                    out.writeDouble(reviews.getScore(i));
+                    out.writeInt((int) reviews.getEpochDay(i));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //must be called with lock held
+    private void addToMonthlyScores(double score, LocalDate date) {
+        long month = prolepticMonth(date);
+        if (month < foldedBeforeMonth) {
+            foldedScore += score;
+            return;
+        }
+        monthlyScores.computeIfAbsent(month, k -> new double[32])[date.getDayOfMonth()] += score;
+    }
+
+    private static long prolepticMonth(LocalDate date) {
+        return date.getYear() * 12L + date.getMonthValue() - 1;
+    }
+
+    //consistent copy of the persisted fields and the cached local score, saved while reviews keep arriving on this hotel.
+    //reviews still in the mapped snapshot stay there, the buffer is read only and shared
+    public Hotel copy() {
+        lock.lock();
+        try {
+            Hotel copy = new Hotel();
+            copy.id = id;
+            copy.name = name;
+            copy.description = description;
+            copy.city = city;
+            copy.phone = phone;
+            copy.services = services == null ? null : new ArrayList<>(services);
+            copy.rate = rate;
+            copy.posizione = posizione;
+            copy.pulizia = pulizia;
+            copy.servizio = servizio;
+            copy.prezzo = prezzo;
+            copy.reviewCount = reviewCount;
+            copy.reviews = reviews == null ? null : reviews.copy();
+            copy.storedReviews = storedReviews;
+            copy.reviewLogLsn = reviewLogLsn;
+            copy.cachedLocalScore = cachedLocalScore;
+            copy.cachedLocalScoreDay = cachedLocalScoreDay;
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //consistent copy of the hotel data, used for rankings and responses
+    public HotelSnapshot snapshot() {
+        lock.lock();
+        try {
+            return new HotelSnapshot(id, name, description, city, phone,
+                    services == null ? null : new ArrayList<>(services),
+                    rate, posizione, pulizia, servizio, prezzo, reviewCount, getLocalScore());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //pre-rendered searchHotel response, shared by all readers and must not be modified
+    public byte[] getSearchHotelResponse() {
+        lock.lock();
+        try {
+            if (searchHotelResponse == null) {
+                searchHotelResponse = Responses.searchHotel(snapshot());
+            }
+            return searchHotelResponse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public String toString() {
-        return name + '\n' +
-                "Descrizione: " + description + '\n' +
-                "Città: " + city + '\n' +
-                "Telefono: " + phone + '\n' +
-                "Servizi: " + services + '\n' +
-                "Numero recensioni: " + reviewCount + '\n' +
-                "Punteggio complessivo: " + rate + "/5.0 \n" +
-                "Punteggi di categoria:" +
-                "\n+Posizione: " + posizione + "/5.0" +
-                "\n+Pulizia: " + pulizia + "/5.0" +
-                "\n+Servizio: " + servizio + "/5.0" +
-                "\n+Prezzo: " + prezzo + "/5.0\n" +
-                "==============================";
+        return snapshot().toString();
     }
 }
@@ -1,173 +1,423 @@
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.rmi.RemoteException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class HotelManager {
+    //power of two, reviews of hotels in different stripes never wait for each other
+    private static final int REVIEW_LOCK_STRIPES = 64;
     private List<Hotel> hotels;
-    private final Map<String, List<Hotel>> rankedHotelsByCity; //city->sorted list of hotels by ranking
+    private final Map<String, Hotel> hotelsByNameAndCity; //normalized name+city key -> hotel
+    private final Map<Integer, Hotel> hotelsById; //hotel id -> hotel
+    private final Map<String, List<Hotel>> hotelsByCity; //city -> its hotels, unsorted
+    private final Map<String, RankedHotels> rankedHotelsByCity; //city -> its hotels in live rank order
+    private final Set<String> dirtyCities = ConcurrentHashMap.newKeySet(); //cities with reviews since their last ranking
+    private final Set<String> unsavedCities = ConcurrentHashMap.newKeySet(); //cities with reviews since their last save
+    private long lastRankingDay = Long.MIN_VALUE; //epoch day of the last ranking pass, scores decay once per day
+    //latest published rankings, replaced as a whole so readers need no lock and never copy
+    private volatile RankingSnapshot rankingSnapshot = RankingSnapshot.EMPTY;
+    //the latest rankings, newest first, so paging cursors keep reading the version they started on
+    private volatile List<RankingSnapshot> recentSnapshots = Collections.emptyList();
+    private final int cursorHistory;
     private final RankingUpdateManagerImpl rankingUpdateManager;
+    private final UserRegisterImpl userRegister; //review counters are counted and replayed along with the reviews
+    private final ReviewLog reviewLog; //reviews submitted since the last saved snapshot
     private final String multicastAddress;
     private final int multicastPort;
     private String hotelsPath; //json file path for hotels
-    private final ReentrantReadWriteLock hotelsLock = new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock rankedHotelsByCityLock = new ReentrantReadWriteLock();
+    private final Path snapshotPath; //binary catalog snapshot, loaded and saved instead of the json file when set
+    private final Path segmentsPath; //directory of per city snapshots, saved instead of any single file when set
+    private final int loadThreads; //threads binding hotels.json records while loading
+    //keeps the log append and the apply of one hotel's review atomic, so lsns reach each hotel in order
+    private final ReentrantLock[] reviewLocks = new ReentrantLock[REVIEW_LOCK_STRIPES];
+    //reviews share the read side, the save takes the write side only while it cuts the review log
+    private final ReentrantReadWriteLock rolloverLock = new ReentrantReadWriteLock();
 
-    public HotelManager(RankingUpdateManagerImpl rankingUpdateManager, Properties properties) throws IOException {
+    public HotelManager(RankingUpdateManagerImpl rankingUpdateManager, UserRegisterImpl userRegister, Properties properties,
+                        MaintenanceScheduler scheduler) throws IOException {
         this.rankingUpdateManager = rankingUpdateManager;
-        this.rankedHotelsByCity = new HashMap<>();
+        this.userRegister = userRegister;
+        //indexes are filled once at load and only read afterwards, lookups take no lock
+        this.hotelsByNameAndCity = new ConcurrentHashMap<>();
+        this.hotelsById = new ConcurrentHashMap<>();
+        this.hotelsByCity = new ConcurrentHashMap<>();
+        this.rankedHotelsByCity = new ConcurrentHashMap<>();
+        for (int i = 0; i < reviewLocks.length; i++) {
+            reviewLocks[i] = new ReentrantLock();
+        }
         this.multicastAddress = properties.getProperty("multicast.ip");
         this.multicastPort = Integer.parseInt(properties.getProperty("multicast.port"));
         this.hotelsPath = properties.getProperty("hotels.json.file.path");
+        String snapshotFile = properties.getProperty("hotels.snapshot.file.path", "").trim();
+        this.snapshotPath = snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+        String segmentsDirectory = properties.getProperty("hotels.segments.dir", "").trim();
+        this.segmentsPath = segmentsDirectory.isEmpty() ? null : Paths.get(segmentsDirectory);
+        this.loadThreads = Integer.parseInt(properties.getProperty("load.threads", "1"));
+        this.cursorHistory = Integer.parseInt(properties.getProperty("search.cursor.history", "8"));
 
-        //load hotels and update rankings once when starting the service
-        loadHotels(hotelsPath);
+        //load hotels, replay reviews not yet in the snapshot and update rankings once when starting the service
+        loadHotels();
+        this.reviewLog = new ReviewLog(properties, scheduler);
+        replayReviewLog();
         updateRankings();
 
+        ServerStats.gauge("ranking.dirty.cities", dirtyCities::size);
+        ServerStats.gauge("save.unsaved.cities", unsavedCities::size);
+        ServerStats.gauge("ranking.version", () -> rankingSnapshot.getVersion());
+
         //schedule next updates and data saves
         long savePeriod = Long.parseLong(properties.getProperty("save.period"));
         long rankingUpdatePeriod = Long.parseLong(properties.getProperty("ranking.update.period"));
-        schedulePeriodicSave(savePeriod);
-        schedulePeriodicRankingUpdate(rankingUpdatePeriod);
+        scheduler.schedule("saveHotels", savePeriod, true, this::saveHotels);
+        scheduler.schedule("updateRankings", rankingUpdatePeriod, false, this::updateRankings);
+    }
+
+    //maps the city segments or the binary snapshot if there are any, otherwise imports the json file.
+    //whatever was imported from another format than the one saves write is saved in full by the first save
+    private void loadHotels() throws IOException {
+        long start = System.currentTimeMillis();
+        List<Hotel> loadedHotels = new ArrayList<>();
+        //build lookup indexes as hotels arrive so searches don't scan the whole catalog
+        Consumer<Hotel> sink = hotel -> {
+            indexHotel(hotel);
+            loadedHotels.add(hotel);
+        };
+        Path source;
+        boolean savedFormat; //loaded from where saves write
+        Path latestSnapshot = snapshotPath == null ? null : CatalogFiles.latestSnapshot(snapshotPath);
+        if (segmentsPath != null && CatalogFiles.hasSegments(segmentsPath)) {
+            source = segmentsPath;
+            savedFormat = true;
+            CatalogFiles.readSegments(source, sink);
+        } else if (latestSnapshot != null) {
+            source = latestSnapshot;
+            savedFormat = segmentsPath == null;
+            CatalogFiles.readBinary(source, sink);
+        } else {
+            source = Paths.get(hotelsPath);
+            savedFormat = segmentsPath == null && snapshotPath == null;
+            CatalogFiles.readJson(source, loadThreads, sink);
+        }
+        if (!savedFormat) {
+            unsavedCities.addAll(hotelsByCity.keySet());
+        }
+        //whatever a crash left behind, the next save might not come before the next crash
+        if (segmentsPath != null) {
+            CatalogFiles.deleteSegmentLeftovers(segmentsPath);
+        }
+        if (snapshotPath != null) {
+            CatalogFiles.deleteLeftovers(snapshotPath);
+        }
+        Path json = Paths.get(hotelsPath).toAbsolutePath();
+        AtomicFiles.deleteTempFiles(json.getParent(), json.getFileName().toString()::equals);
+        hotels = Collections.unmodifiableList(loadedHotels);
+        System.out.println("Loaded " + hotels.size() + " hotels from " + source + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void replayReviewLog() throws IOException {
+        long snapshotLsn = 0;
+        for (Hotel hotel : hotels) {
+            snapshotLsn = Math.max(snapshotLsn, hotel.getReviewLogLsn());
+        }
+        reviewLog.open(snapshotLsn, record -> {
+            //users skip records their saved counter already includes
+            userRegister.replayReview(record.getUsername(), record.getLsn());
+            Hotel hotel = hotelsById.get(record.getHotelId());
+            if (hotel == null) {
+                System.err.println("Review log references unknown hotel " + record.getHotelId());
+                return;
+            }
+            //hotels skip records their snapshot already contains
+            if (hotel.submitReview(record.getRate(), record.getPosizione(), record.getPulizia(), record.getServizio(),
+                    record.getPrezzo(), record.getDate(), record.getLsn())) {
+                dirtyCities.add(hotel.getCity());
+                unsavedCities.add(hotel.getCity());
+            }
+        });
+    }
+
+    //only called while loading, before the manager is shared
+    private void indexHotel(Hotel hotel) {
+        hotelsByNameAndCity.put(hotelKey(hotel.getName(), hotel.getCity()), hotel);
+        hotelsById.put(hotel.getId(), hotel);
+        hotelsByCity.computeIfAbsent(hotel.getCity(), k -> new ArrayList<>()).add(hotel);
+        //filled with scores by the first ranking pass
+        rankedHotelsByCity.computeIfAbsent(hotel.getCity(), k -> new RankedHotels());
+    }
+
+    //case insensitive key for the name+city index, same matching rules searchHotelByNameAndCity always had
+    private static String hotelKey(String name, String city) {
+        return name.toLowerCase(Locale.ROOT) + '\n' + city.toLowerCase(Locale.ROOT);
     }
 
-    //loads hotels using gson
-    private void loadHotels(String jsonFilePath) throws IOException {
-        Gson gson = new Gson();
-        Type hotelListType = new TypeToken<List<Hotel>>() {
-        }.getType();
-        try (FileReader reader = new FileReader(jsonFilePath)) {
-            hotelsLock.writeLock().lock();
+    //adds the review of username and counts it for the user's badge. IOException only if the review log write failed,
+    //then nothing was applied. a failed fsync comes after the apply and is reported as UNCONFIRMED
+    public ReviewRequest.Status submitReview(String username, String name, String city, double rate, int posizione, int pulizia, int servizio, int prezzo) throws IOException {
+        Hotel hotel = searchHotelByNameAndCity(name, city);
+        if (hotel == null) {
+            return ReviewRequest.Status.HOTEL_NOT_FOUND;
+        }
+        long lsn;
+        ReentrantLock reviewLock = reviewLocks[hotel.getId() & (REVIEW_LOCK_STRIPES - 1)];
+        rolloverLock.readLock().lock();
+        try {
+            reviewLock.lock();
             try {
-                hotels = gson.fromJson(reader, hotelListType);
-                if (hotels == null) {
-                    hotels = new ArrayList<>();
-                }
+                //log first, a snapshot can never contain a review that the log misses
+                LocalDate today = LocalDate.now();
+                lsn = reviewLog.append(username, hotel.getId(), today, rate, posizione, pulizia, servizio, prezzo);
+                hotel.submitReview(rate, posizione, pulizia, servizio, prezzo, today, lsn);
+                //marked before the rollover lock is released, so the save cutting this log segment also saves the city
+                unsavedCities.add(hotel.getCity());
             } finally {
-                hotelsLock.writeLock().unlock();
+                reviewLock.unlock();
             }
+            //counted before the rollover lock is released too, the users saved with that save include it
+            userRegister.addReviews(username, 1, lsn);
+        } finally {
+            rolloverLock.readLock().unlock();
+        }
+        rankedHotelsByCity.get(hotel.getCity()).update(hotel);
+        dirtyCities.add(hotel.getCity());
+        //wait for the fsync outside the locks so concurrent reviews share it
+        try {
+            reviewLog.awaitDurable(lsn);
+        } catch (IOException e) {
+            System.err.println("Error while syncing review log!");
+            e.printStackTrace();
+            return ReviewRequest.Status.UNCONFIRMED;
         }
+        return ReviewRequest.Status.ADDED;
     }
 
-    public boolean submitReview(String name, String city, double rate, int posizione, int pulizia, int servizio, int prezzo) {
-        try {
-            Hotel hotel = searchHotelByNameAndCity(name, city);
-            hotelsLock.writeLock().lock();
-            if (hotel != null) {
-                hotel.submitReview(rate, posizione, pulizia, servizio, prezzo);
-                return true;
+    //applies a batch of username grouped by hotel: one stripe lock, log write and hotel lock per hotel and a single fsync wait
+    public ReviewRequest.Status[] submitReviews(String username, List<ReviewRequest> batch) {
+        ReviewRequest.Status[] statuses = new ReviewRequest.Status[batch.size()];
+        Map<Hotel, List<Integer>> positionsByHotel = new LinkedHashMap<>(); //hotel -> positions of its reviews in the batch
+        for (int i = 0; i < batch.size(); i++) {
+            ReviewRequest review = batch.get(i);
+            Hotel hotel = searchHotelByNameAndCity(review.getHotelName(), review.getCity());
+            if (hotel == null) {
+                statuses[i] = ReviewRequest.Status.HOTEL_NOT_FOUND;
             } else {
-                return false;
+                statuses[i] = ReviewRequest.Status.NOT_SAVED;
+                positionsByHotel.computeIfAbsent(hotel, k -> new ArrayList<>()).add(i);
             }
-        } finally {
-            hotelsLock.writeLock().unlock();
         }
-    }
+        if (positionsByHotel.isEmpty()) {
+            return statuses;
+        }
 
-    public Hotel searchHotelByNameAndCity(String name, String city) {
-        hotelsLock.readLock().lock();
+        List<Integer> applied = new ArrayList<>();
+        long lastLsn = 0;
+        LocalDate today = LocalDate.now();
+        rolloverLock.readLock().lock();
         try {
-            for (Hotel hotel : hotels) {
-                if (hotel.getName().equalsIgnoreCase(name) && hotel.getCity().equalsIgnoreCase(city)) {
-                    return hotel;
+            for (Map.Entry<Hotel, List<Integer>> group : positionsByHotel.entrySet()) {
+                Hotel hotel = group.getKey();
+                List<ReviewRequest> reviews = new ArrayList<>(group.getValue().size());
+                for (int position : group.getValue()) {
+                    reviews.add(batch.get(position));
                 }
+                ReentrantLock reviewLock = reviewLocks[hotel.getId() & (REVIEW_LOCK_STRIPES - 1)];
+                reviewLock.lock();
+                try {
+                    long firstLsn = reviewLog.append(username, hotel.getId(), today, reviews);
+                    hotel.submitReviews(reviews, today, firstLsn);
+                    unsavedCities.add(hotel.getCity());
+                    lastLsn = firstLsn + reviews.size() - 1;
+                } finally {
+                    reviewLock.unlock();
+                }
+                userRegister.addReviews(username, reviews.size(), lastLsn);
+                applied.addAll(group.getValue());
+                rankedHotelsByCity.get(hotel.getCity()).update(hotel);
+                dirtyCities.add(hotel.getCity());
             }
-            return null;
+        } catch (IOException e) {
+            //the groups not yet logged stay NOT_SAVED and nothing of them was applied, the client can resend only those
+            System.err.println("Error while logging review batch!");
+            e.printStackTrace();
         } finally {
-            hotelsLock.readLock().unlock();
+            rolloverLock.readLock().unlock();
+        }
+
+        //applied items are never NOT_SAVED, resending them would count them twice
+        ReviewRequest.Status appliedStatus = ReviewRequest.Status.ADDED;
+        try {
+            reviewLog.awaitDurable(lastLsn);
+        } catch (IOException e) {
+            System.err.println("Error while syncing review batch!");
+            e.printStackTrace();
+            appliedStatus = ReviewRequest.Status.UNCONFIRMED;
+        }
+        for (int position : applied) {
+            statuses[position] = appliedStatus;
+        }
+        return statuses;
+    }
+
+    public Hotel searchHotelByNameAndCity(String name, String city) {
+        return hotelsByNameAndCity.get(hotelKey(name, city));
+    }
+
+    public List<HotelSnapshot> searchHotelsByCity(String city) {
+        CityRanking cityRanking = getCityRanking(city);
+        if (cityRanking == null) {
+            return Collections.emptyList();
         }
+        return cityRanking.getHotels();
     }
 
-    public List<Hotel> searchHotelsByCity(String city) {
+    public CityRanking getCityRanking(String city) {
         //make sure received input is parsed to capital first letter
         String capitalizedCity = city.substring(0, 1).toUpperCase() + city.substring(1);
+        return rankingSnapshot.getCityRanking(capitalizedCity);
+    }
 
-        rankedHotelsByCityLock.readLock().lock();
-        try {
-            List<Hotel> cityHotels = rankedHotelsByCity.get(capitalizedCity);
-            if (cityHotels == null) {
-                return new ArrayList<>();
+    //the ranking of a city as published in the given version, null once that version left the cursor history
+    public CityRanking getCityRanking(String city, long version) {
+        String capitalizedCity = city.substring(0, 1).toUpperCase() + city.substring(1);
+        for (RankingSnapshot snapshot : recentSnapshots) {
+            CityRanking cityRanking = snapshot.getCityRanking(capitalizedCity);
+            if (cityRanking != null && cityRanking.getVersion() == version) {
+                return cityRanking;
             }
-            return new ArrayList<>(cityHotels);
-        } finally {
-            rankedHotelsByCityLock.readLock().unlock();
         }
+        return null;
+    }
+
+    //live order of a city, follows every review instead of the ranking timer. null for unknown cities
+    public RankedHotels getLiveRanking(String city) {
+        String capitalizedCity = city.substring(0, 1).toUpperCase() + city.substring(1);
+        return rankedHotelsByCity.get(capitalizedCity);
     }
 
-    //save hotel data using gson
-    private void saveHotelsToJson() {
+    //saves the cities with reviews since their last save (all of them unless the catalog is segmented) and the users,
+    //then drops the review log segments the save now covers. does nothing while no review arrives
+    private void saveHotels() {
+        if (unsavedCities.isEmpty()) {
+            System.out.println("Hotel data unchanged.");
+            return;
+        }
         System.out.println("Saving hotel data to disk...");
-        hotelsLock.readLock().lock();
-        try (FileWriter writer = new FileWriter(this.hotelsPath)) {
-            Gson gson = new Gson();
-            gson.toJson(hotels, writer);
-            System.out.println("Hotel data saved!");
+        Set<String> cities = new HashSet<>();
+        boolean saved = false;
+        try {
+            long firstLiveSegment;
+            //every review in the closed segments is applied once no review holds the read side
+            rolloverLock.writeLock().lock();
+            try {
+                firstLiveSegment = reviewLog.rollover();
+            } finally {
+                rolloverLock.writeLock().unlock();
+            }
+            //every review in the closed segments marked its city before the rollover, later ones mark it again
+            Iterator<String> unsaved = unsavedCities.iterator();
+            while (unsaved.hasNext()) {
+                cities.add(unsaved.next());
+                unsaved.remove();
+            }
+            //copy hotel by hotel, reviews keep flowing. newer reviews copied here are skipped on replay by their lsn.
+            //no lock is held while writing, a crash mid-write leaves the previous file in place
+            if (segmentsPath != null) {
+                Files.createDirectories(segmentsPath);
+                for (String city : cities) {
+                    CatalogFiles.writeSegment(segmentsPath, city, copyHotels(hotelsByCity.get(city)));
+                }
+                CatalogFiles.deleteOldSegments(segmentsPath);
+            } else if (snapshotPath != null) {
+                CatalogFiles.writeSnapshot(snapshotPath, copyHotels(hotels));
+            } else {
+                CatalogFiles.writeJson(Paths.get(this.hotelsPath), copyHotels(hotels));
+            }
+            saved = true;
+            System.out.println("Hotel data saved! (" + cities.size() + " cities changed)");
+            //the closed segments also hold review counters, every one of them was counted before the rollover
+            if (userRegister.saveUsers()) {
+                reviewLog.deleteSegmentsBefore(firstLiveSegment);
+            }
         } catch (IOException e) {
             System.out.printf("Error while saving hotel data!");
             e.printStackTrace();
         } finally {
-            hotelsLock.readLock().unlock();
-        }
-    }
-
-    public void schedulePeriodicSave(long periodInMillis) {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                saveHotelsToJson();
+            if (!saved) {
+                //saved again next time, the log segments stay until then
+                unsavedCities.addAll(cities);
             }
-        }, periodInMillis, periodInMillis);
+        }
     }
 
-    public void schedulePeriodicRankingUpdate(long periodInMillis) {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                updateRankings();
-            }
-        }, periodInMillis, periodInMillis);
+    private static List<Hotel> copyHotels(List<Hotel> hotelsToCopy) {
+        List<Hotel> copies = new ArrayList<>(hotelsToCopy.size());
+        for (Hotel hotel : hotelsToCopy) {
+            copies.add(hotel.copy());
+        }
+        return copies;
     }
 
     private void updateRankings() {
         System.out.println("Updating Hotel Rankings...");
-        Map<String, List<Hotel>> newRankings = getRankedHotelsByCity();
+        Set<String> cities = getCitiesToRerank();
+        if (cities.isEmpty()) {
+            System.out.println("Hotel Rankings unchanged.");
+            return;
+        }
+        Map<String, List<HotelSnapshot>> newRankings = getRankedHotelsByCity(cities);
 
-        rankedHotelsByCityLock.writeLock().lock();
-        try {
-            //iterate all cities in the new ranking map
-            for (String city : newRankings.keySet()) {
-                List<Hotel> newCityRankings = newRankings.get(city);
-                List<Hotel> oldCityRankings = rankedHotelsByCity.get(city);
-
-                //check if the lists have the same elements in the same order
-                if (!areRankingsEqual(newCityRankings, oldCityRankings)) {
-                    //update the manager's map
-                    rankedHotelsByCity.put(city, newCityRankings);
-                    notifyRankingUpdate(city, newCityRankings);
-                    //check if the hotel in first position changed
-                    if (hasFirstPositionChanged(newCityRankings, oldCityRankings)) {
-                        sendMulticastMessage(city, newCityRankings.get(0));
-                    }
-                }
+        //only the ranking thread publishes, so read-copy-publish needs no lock
+        RankingSnapshot oldSnapshot = rankingSnapshot;
+        long version = oldSnapshot.getVersion() + 1;
+        Map<String, CityRanking> cityRankings = new HashMap<>(oldSnapshot.getCityRankings());
+        List<CityRanking> reorderedCities = new ArrayList<>();
+        //iterate all cities in the new ranking map
+        for (String city : newRankings.keySet()) {
+            List<HotelSnapshot> newCityRankings = newRankings.get(city);
+            CityRanking oldCityRanking = oldSnapshot.getCityRanking(city);
+            List<HotelSnapshot> oldCityRankings = oldCityRanking == null ? null : oldCityRanking.getHotels();
+            //always publish the fresh values, even when the order did not change
+            CityRanking newCityRanking = new CityRanking(city, version, newCityRankings);
+            cityRankings.put(city, newCityRanking);
+            //check if the lists have the same elements in the same order
+            if (!areRankingsEqual(newCityRankings, oldCityRankings)) {
+                reorderedCities.add(newCityRanking);
+            }
+        }
+        rankingSnapshot = new RankingSnapshot(version, cityRankings);
+        List<RankingSnapshot> recent = new ArrayList<>(cursorHistory);
+        recent.add(rankingSnapshot);
+        for (RankingSnapshot previous : recentSnapshots) {
+            if (recent.size() >= cursorHistory) {
+                break;
+            }
+            recent.add(previous);
+        }
+        recentSnapshots = recent;
+
+        //notify only after publishing, so clients reacting to it already see the new ranking
+        for (CityRanking cityRanking : reorderedCities) {
+            String city = cityRanking.getCity();
+            List<HotelSnapshot> newCityRankings = cityRanking.getHotels();
+            CityRanking oldCityRanking = oldSnapshot.getCityRanking(city);
+            notifyRankingUpdate(city, newCityRankings);
+            //check if the hotel in first position changed
+            if (hasFirstPositionChanged(newCityRankings, oldCityRanking == null ? null : oldCityRanking.getHotels())) {
+                sendMulticastMessage(city, newCityRankings.get(0));
             }
-        } finally {
-            rankedHotelsByCityLock.writeLock().unlock();
         }
         System.out.println("Hotel Rankings Updated!");
     }
 
-    private boolean areRankingsEqual(List<Hotel> newRankings, List<Hotel> oldRankings) {
+    private boolean areRankingsEqual(List<HotelSnapshot> newRankings, List<HotelSnapshot> oldRankings) {
         if (newRankings == null || oldRankings == null) {
             return false;
         }
@@ -185,30 +435,26 @@ public class HotelManager {
         return true;
     }
 
-    private boolean hasFirstPositionChanged(List<Hotel> newRankings, List<Hotel> oldRankings) {
+    private boolean hasFirstPositionChanged(List<HotelSnapshot> newRankings, List<HotelSnapshot> oldRankings) {
         if (oldRankings == null || oldRankings.isEmpty()) {
             return true;
         }
         return newRankings.get(0).getId() != oldRankings.get(0).getId();
     }
 
-    private void notifyRankingUpdate(String city, List<Hotel> newRankings) {
+    private void notifyRankingUpdate(String city, List<HotelSnapshot> newRankings) {
         StringBuilder message = new StringBuilder();
         message.append("Updated rankings for ").append(city).append(":\n");
         for (int i = 0; i < newRankings.size(); i++) {
-            Hotel hotel = newRankings.get(i);
+            HotelSnapshot hotel = newRankings.get(i);
             message.append(i + 1).append(". ").append(hotel.getName()).append(" - Score: ").append(hotel.getLocalScore()).append("\n");
         }
 
-        try {
-            rankingUpdateManager.notifyListeners(city, message.toString());
-        } catch (RemoteException e) {
-            System.err.println("Error notifying listeners for city " + city);
-            e.printStackTrace();
-        }
+        //only queues the message, delivery happens on the manager's own threads
+        rankingUpdateManager.notifyListeners(city, message.toString());
     }
 
-    private void sendMulticastMessage(String city, Hotel topHotel) {
+    private void sendMulticastMessage(String city, HotelSnapshot topHotel) {
         String message = "New top hotel in " + city + ": " + topHotel.getName() + " with score " + topHotel.getLocalScore();
         try (DatagramSocket socket = new DatagramSocket()) {
             InetAddress group = InetAddress.getByName(multicastAddress);
@@ -221,28 +467,57 @@ public class HotelManager {
         }
     }
 
-    public Map<String, List<Hotel>> getRankedHotelsByCity() {
-        Map<String, List<Hotel>> newRankedHotelsByCity = new HashMap<>();
+    //cities that received reviews since the last pass, plus every reviewed city when the decay weights moved to a new day
+    private Set<String> getCitiesToRerank() {
+        Set<String> cities = new HashSet<>();
+        long today = LocalDate.now().toEpochDay();
+        if (today != lastRankingDay) {
+            boolean firstRanking = lastRankingDay == Long.MIN_VALUE;
+            lastRankingDay = today;
+            for (Map.Entry<String, List<Hotel>> city : hotelsByCity.entrySet()) {
+                if (firstRanking || hasReviews(city.getValue())) {
+                    cities.add(city.getKey());
+                    //every score decayed, the live order has to be rebuilt
+                    rankedHotelsByCity.get(city.getKey()).rebuild(city.getValue());
+                }
+            }
+        }
+        //remove before ranking, a review arriving meanwhile marks its city dirty again for the next pass
+        Iterator<String> dirty = dirtyCities.iterator();
+        while (dirty.hasNext()) {
+            cities.add(dirty.next());
+            dirty.remove();
+        }
+        return cities;
+    }
 
-        hotelsLock.readLock().lock();
-        try {
-            //build map such that city -> list of it's hotels
-            for (Hotel hotel : hotels) {
-                String city = hotel.getCity();
-                newRankedHotelsByCity
-                        //add a new city to the map only if its the first time matching it
-                        .computeIfAbsent(city, k -> new ArrayList<>())
-                        .add(hotel);
+    private boolean hasReviews(List<Hotel> cityHotels) {
+        for (Hotel hotel : cityHotels) {
+            if (hotel.getReviewCount() > 0) {
+                return true;
             }
-        } finally {
-            hotelsLock.readLock().unlock();
         }
+        return false;
+    }
+
+    public Map<String, List<HotelSnapshot>> getRankedHotelsByCity() {
+        return getRankedHotelsByCity(new HashSet<>(hotelsByCity.keySet()));
+    }
 
-        //iterate all keys (all cities in the map)
-        for (String city : newRankedHotelsByCity.keySet()) {
-            //sort the hotels in this city by local score
-            List<Hotel> hotelsInCity = newRankedHotelsByCity.get(city);
-            hotelsInCity.sort((h1, h2) -> Double.compare(h2.getLocalScore(), h1.getLocalScore()));
+    public Map<String, List<HotelSnapshot>> getRankedHotelsByCity(Set<String> cities) {
+        Map<String, List<HotelSnapshot>> newRankedHotelsByCity = new HashMap<>();
+        for (String city : cities) {
+            RankedHotels rankedHotels = rankedHotelsByCity.get(city);
+            if (rankedHotels == null) {
+                continue;
+            }
+            //freeze every hotel in live rank order, the same order hotelRank and offset pages report
+            List<Hotel> cityHotels = rankedHotels.top(rankedHotels.size());
+            List<HotelSnapshot> hotelsInCity = new ArrayList<>(cityHotels.size());
+            for (Hotel hotel : cityHotels) {
+                hotelsInCity.add(hotel.snapshot());
+            }
+            newRankedHotelsByCity.put(city, hotelsInCity);
         }
 
         return newRankedHotelsByCity;
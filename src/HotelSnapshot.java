@@ -0,0 +1,88 @@
+import java.util.List;
+
+//immutable copy of a hotel's public data, taken under the hotel lock so all the values belong to the same moment
+public class HotelSnapshot {
+    private final int id;
+    private final String name;
+    private final String description;
+    private final String city;
+    private final String phone;
+    private final List<String> services;
+    private final double rate;
+    private final double posizione;
+    private final double pulizia;
+    private final double servizio;
+    private final double prezzo;
+    private final int reviewCount;
+    private final double localScore;
+    private volatile byte[] encoded; //utf-8 rendering of toString() plus newline, built on first use
+
+    public HotelSnapshot(int id, String name, String description, String city, String phone, List<String> services,
+                         double rate, double posizione, double pulizia, double servizio, double prezzo,
+                         int reviewCount, double localScore) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.city = city;
+        this.phone = phone;
+        this.services = services;
+        this.rate = rate;
+        this.posizione = posizione;
+        this.pulizia = pulizia;
+        this.servizio = servizio;
+        this.prezzo = prezzo;
+        this.reviewCount = reviewCount;
+        this.localScore = localScore;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getReviewCount() {
+        return reviewCount;
+    }
+
+    public double getLocalScore() {
+        return localScore;
+    }
+
+    //the snapshot never changes, so the rendered text is computed once and shared by every response
+    public byte[] getEncoded() {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            bytes = Responses.encode(toString() + "\n");
+            encoded = bytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return name + '\n' +
+                "Descrizione: " + description + '\n' +
+                "Città: " + city + '\n' +
+                "Telefono: " + phone + '\n' +
+                "Servizi: " + services + '\n' +
+                "Numero recensioni: " + reviewCount + '\n' +
+                "Punteggio complessivo: " + rate + "/5.0 \n" +
+                "Punteggi di categoria:" +
+                "\n+Posizione: " + posizione + "/5.0" +
+                "\n+Pulizia: " + pulizia + "/5.0" +
+                "\n+Servizio: " + servizio + "/5.0" +
+                "\n+Prezzo: " + prezzo + "/5.0\n" +
+                "==============================";
+    }
+}
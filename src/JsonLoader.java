@@ -0,0 +1,188 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+//streams a json array or object record by record, so loading takes little more memory than the loaded objects and
+//the caller can index every record as it arrives. with threads > 1 the calling thread still tokenizes the file but
+//binding records to objects (the reflective, expensive part) runs on a pool in batches, handed back in file order
+public final class JsonLoader {
+    private static final int BATCH_SIZE = 256;
+    private static final long PROGRESS_INTERVAL_NANOS = 2_000_000_000L;
+
+    public interface EntryConsumer<T> {
+        void accept(String key, T value);
+    }
+
+    private JsonLoader() {
+    }
+
+    //[record, ...], returns the number of records
+    public static <T> long readArray(Path file, Class<T> type, int threads, Consumer<T> sink) throws IOException {
+        return read(file, type, threads, false, (key, value) -> sink.accept(value));
+    }
+
+    //{"key": record, ...}, returns the number of records
+    public static <T> long readObject(Path file, Class<T> type, int threads, EntryConsumer<T> sink) throws IOException {
+        return read(file, type, threads, true, sink);
+    }
+
+    private static <T> long read(Path file, Class<T> type, int threads, boolean object, EntryConsumer<T> sink) throws IOException {
+        long size = Files.size(file);
+        if (size == 0) {
+            return 0;
+        }
+        Gson gson = new Gson();
+        CountingInputStream in = new CountingInputStream(Files.newInputStream(file));
+        ExecutorService pool = threads > 1 ? newPool(threads) : null;
+        //batches in file order, bounded so a slow pool doesn't pile up parsed trees
+        Deque<Batch<T>> pending = new ArrayDeque<>();
+        long records = 0;
+        long nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            if (reader.peek() == JsonToken.NULL) {
+                return 0;
+            }
+            if (object) {
+                reader.beginObject();
+            } else {
+                reader.beginArray();
+            }
+            Batch<T> batch = new Batch<>();
+            while (reader.hasNext()) {
+                String key = object ? reader.nextName() : null;
+                if (pool == null) {
+                    sink.accept(key, gson.fromJson(reader, type));
+                } else {
+                    batch.keys.add(key);
+                    batch.elements.add(JsonParser.parseReader(reader));
+                    if (batch.elements.size() == BATCH_SIZE) {
+                        batch.submit(pool, gson, type);
+                        pending.addLast(batch);
+                        batch = new Batch<>();
+                        while (pending.size() > threads * 2) {
+                            pending.removeFirst().drainTo(sink);
+                        }
+                    }
+                }
+                records++;
+                if (System.nanoTime() - nextProgress >= 0) {
+                    nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+                    System.out.printf("Loading %s: %d%% (%d records)%n", file.getFileName(), in.count * 100 / size, records);
+                }
+            }
+            if (pool != null) {
+                batch.submit(pool, gson, type);
+                pending.addLast(batch);
+                while (!pending.isEmpty()) {
+                    pending.removeFirst().drainTo(sink);
+                }
+            }
+            return records;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static ExecutorService newPool(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "json-loader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class Batch<T> {
+        final List<String> keys = new ArrayList<>(BATCH_SIZE);
+        final List<JsonElement> elements = new ArrayList<>(BATCH_SIZE);
+        Future<List<T>> values;
+
+        void submit(ExecutorService pool, Gson gson, Class<T> type) {
+            List<JsonElement> trees = elements;
+            values = pool.submit((Callable<List<T>>) () -> {
+                List<T> bound = new ArrayList<>(trees.size());
+                for (JsonElement tree : trees) {
+                    bound.add(gson.fromJson(tree, type));
+                }
+                return bound;
+            });
+        }
+
+        void drainTo(EntryConsumer<T> sink) throws IOException {
+            List<T> bound;
+            try {
+                bound = values.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading");
+            } catch (ExecutionException e) {
+                //same exceptions a sequential load would throw
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            for (int i = 0; i < bound.size(); i++) {
+                sink.accept(keys.get(i), bound.get(i));
+            }
+        }
+    }
+
+    //bytes consumed so far, for the progress percentage
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+public interface LatencyHistogramMXBean {
+    long getCount();
+    double getP50Micros();
+    double getP99Micros();
+    double getP999Micros();
+    double getMaxMicros();
+}
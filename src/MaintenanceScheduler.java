@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+//runs the periodic saves, ranking updates and log syncs. every task waits its full period (plus jitter) after the
+//previous run ends, never overlaps with itself, survives exceptions and is timed in ServerStats under its name
+public class MaintenanceScheduler {
+    private final ScheduledThreadPoolExecutor executor;
+    private final double jitter; //fraction of the period added or removed at random, so tasks don't line up
+    private final List<Task> tasks = new ArrayList<>();
+    private final ReentrantLock tasksLock = new ReentrantLock();
+    private volatile boolean shuttingDown;
+
+    public MaintenanceScheduler(Properties properties) {
+        int threads = Integer.parseInt(properties.getProperty("maintenance.threads", "2"));
+        this.jitter = Double.parseDouble(properties.getProperty("maintenance.jitter", "0.1"));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "maintenance-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    //starts running task every periodMillis, finalRun tells whether shutdown() runs it one last time
+    public void schedule(String name, long periodMillis, boolean finalRun, Runnable task) {
+        Task scheduled = new Task(name, periodMillis, finalRun, task);
+        tasksLock.lock();
+        try {
+            tasks.add(scheduled);
+        } finally {
+            tasksLock.unlock();
+        }
+        scheduled.scheduleNext();
+    }
+
+    //stops the periodic runs, waits for the ones in progress, then runs every final task once in registration order
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Maintenance tasks still running, continuing with the final run");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Task> finalTasks;
+        tasksLock.lock();
+        try {
+            finalTasks = new ArrayList<>(tasks);
+        } finally {
+            tasksLock.unlock();
+        }
+        for (Task task : finalTasks) {
+            if (task.finalRun) {
+                task.runOnce();
+            }
+        }
+    }
+
+    private class Task implements Runnable {
+        private final String name;
+        private final long periodMillis;
+        private final boolean finalRun;
+        private final Runnable action;
+        private final LatencyHistogram latency;
+        private final AtomicLong failures = new AtomicLong();
+        //held while running, the final run on shutdown waits for a periodic one still in progress
+        private final ReentrantLock runLock = new ReentrantLock();
+
+        Task(String name, long periodMillis, boolean finalRun, Runnable action) {
+            this.name = name;
+            this.periodMillis = periodMillis;
+            this.finalRun = finalRun;
+            this.action = action;
+            this.latency = ServerStats.latency(name);
+            ServerStats.gauge("maintenance." + name + ".failures", failures::get);
+        }
+
+        @Override
+        public void run() {
+            runOnce();
+            scheduleNext();
+        }
+
+        void runOnce() {
+            runLock.lock();
+            try {
+                long start = System.nanoTime();
+                try {
+                    action.run();
+                } catch (Throwable e) {
+                    //keep the task scheduled, the next run may well succeed
+                    failures.incrementAndGet();
+                    System.err.println("Maintenance task " + name + " failed!");
+                    e.printStackTrace();
+                }
+                latency.record(System.nanoTime() - start);
+            } finally {
+                runLock.unlock();
+            }
+        }
+
+        void scheduleNext() {
+            if (shuttingDown) {
+                return;
+            }
+            long delay = periodMillis;
+            if (jitter > 0) {
+                long spread = (long) (periodMillis * jitter);
+                if (spread > 0) {
+                    delay += ThreadLocalRandom.current().nextLong(-spread, spread + 1);
+                }
+            }
+            try {
+                executor.schedule(this, Math.max(1, delay), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //shutdown raced with this run, the final run still happens
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//non blocking tcp server: one acceptor thread plus a few selector loops sharing all the connections.
+//review inserts can wait on the review log, they run on a worker pool while their connection stops reading
+public class NioTCPServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    //stop reading from a client that is not consuming its responses
+    private static final int MAX_PENDING_WRITE_BYTES = 1024 * 1024;
+    private final int tcpPort;
+    private final IoLoop[] ioLoops;
+    private final ExecutorService workers;
+
+    public NioTCPServer(int tcpPort, int ioThreads, int workerThreads) throws IOException {
+        this.tcpPort = tcpPort;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "nio-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ioLoops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < ioLoops.length; i++) {
+            ioLoops[i] = new IoLoop();
+        }
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < ioLoops.length; i++) {
+            Thread thread = new Thread(ioLoops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(tcpPort));
+        System.out.println("TCP Server (nio, " + ioLoops.length + " io threads) is ready on port " + tcpPort);
+
+        //accept new connections and hand them round robin to the io loops
+        int next = 0;
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            ioLoops[next].register(channel);
+            next = (next + 1) % ioLoops.length;
+        }
+    }
+
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> completedConnections = new ConcurrentLinkedQueue<>(); //worker finished, reply ready
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        //called by a worker, the reply is written and the connection resumed on this loop's thread
+        void completed(Connection connection) {
+            completedConnections.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerPendingChannels();
+                    resumeCompletedConnections();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (Exception e) {
+                            //a failing client must never take the whole loop down
+                            if (!(e instanceof IOException)) {
+                                e.printStackTrace();
+                            }
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void resumeCompletedConnections() {
+            Connection connection;
+            while ((connection = completedConnections.poll()) != null) {
+                try {
+                    connection.resume();
+                } catch (Exception e) {
+                    if (!(e instanceof IOException)) {
+                        e.printStackTrace();
+                    }
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    //per client state: partial input line, pending output and the protocol handler shared with the blocking server.
+    //while a worker runs one of its commands the connection is busy: nothing else is read or run, so commands and
+    //replies keep their order and the handler is only ever used by one thread at a time
+    private class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final TCPServer.RequestHandler handler;
+        private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+        private ByteBuffer frameBuffer; //partial binary frames, allocated once the client switches with binary()
+        private final ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream();
+        private final PrintWriter out;
+        private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private int pendingWriteBytes;
+        private boolean closed;
+        private boolean busy; //a worker runs a command, reading resumes with its reply
+        private ByteBuffer pendingInput; //input received after the command the worker runs
+        //written by the worker only
+        private final ByteArrayOutputStream workerResponse = new ByteArrayOutputStream();
+        private final PrintWriter workerOut;
+        private Exception workerError;
+
+        Connection(IoLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.handler = new TCPServer.RequestHandler(channel.socket());
+            this.out = new PrintWriter(new OutputStreamWriter(responseBuffer, StandardCharsets.UTF_8));
+            this.workerOut = new PrintWriter(new OutputStreamWriter(workerResponse, StandardCharsets.UTF_8));
+        }
+
+        void read(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            buffer.flip();
+            process(buffer);
+        }
+
+        //frames lines and runs every complete command until one goes to a worker, responses go out together
+        private void process(ByteBuffer buffer) throws IOException {
+            while (!busy) {
+                if (handler.isBinary()) {
+                    readFrames(buffer);
+                    break;
+                }
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                byte b = buffer.get();
+                if (b == '\n') {
+                    handleLine();
+                } else {
+                    lineBuffer.write(b);
+                    if (lineBuffer.size() > MAX_LINE_LENGTH) {
+                        throw new IOException("Line too long");
+                    }
+                }
+            }
+            if (busy && buffer.hasRemaining()) {
+                //the read buffer is shared by the loop, keep a copy
+                pendingInput = ByteBuffer.allocate(buffer.remaining());
+                pendingInput.put(buffer);
+                pendingInput.flip();
+            }
+            enqueueResponses();
+            flush();
+        }
+
+        private void enqueueResponses() {
+            out.flush();
+            if (responseBuffer.size() > 0) {
+                enqueue(ByteBuffer.wrap(responseBuffer.toByteArray()));
+                responseBuffer.reset();
+            }
+        }
+
+        private void handleLine() throws IOException {
+            byte[] bytes = lineBuffer.toByteArray();
+            lineBuffer.reset();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            String command = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            if (TCPServer.RequestHandler.mayBlock(command)) {
+                dispatch(() -> handler.handleCommand(command, workerOut, workerResponse));
+            } else {
+                handler.handleCommand(command, out, responseBuffer);
+            }
+        }
+
+        //runs every complete binary frame, keeps a trailing partial one for the next read. frames already buffered
+        //behind one a worker runs are picked up again by resume
+        private void readFrames(ByteBuffer buffer) throws IOException {
+            if (frameBuffer == null) {
+                frameBuffer = ByteBuffer.allocate(4 + BinaryProtocol.MAX_FRAME_LENGTH);
+            }
+            do {
+                int copied = Math.min(buffer.remaining(), frameBuffer.remaining());
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.limit(chunk.position() + copied);
+                frameBuffer.put(chunk);
+                buffer.position(buffer.position() + copied);
+
+                frameBuffer.flip();
+                while (!busy && frameBuffer.remaining() >= 4) {
+                    int length = frameBuffer.getInt(frameBuffer.position());
+                    if (!BinaryProtocol.isValidLength(length)) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    if (frameBuffer.remaining() < 4 + length) {
+                        break;
+                    }
+                    int frameStart = frameBuffer.position() + 4;
+                    ByteBuffer frame = ByteBuffer.wrap(frameBuffer.array(), frameStart, length).slice();
+                    if (TCPServer.RequestHandler.mayBlock(frame)) {
+                        //frameBuffer is compacted meanwhile, the worker gets its own copy
+                        ByteBuffer copy = ByteBuffer.wrap(Arrays.copyOfRange(frameBuffer.array(), frameStart, frameStart + length));
+                        dispatch(() -> handler.handleFrame(copy, workerResponse));
+                    } else {
+                        handler.handleFrame(frame, responseBuffer);
+                    }
+                    frameBuffer.position(frameStart + length);
+                }
+                frameBuffer.compact();
+            } while (!busy && buffer.hasRemaining());
+        }
+
+        private void dispatch(WorkerCommand command) {
+            //replies of the commands before this one go out first
+            enqueueResponses();
+            busy = true;
+            workers.execute(() -> {
+                try {
+                    command.run();
+                    workerOut.flush();
+                } catch (Exception e) {
+                    workerError = e;
+                }
+                loop.completed(this);
+            });
+        }
+
+        //on the loop thread once the worker is done: queues its reply and carries on with the input that waited
+        void resume() throws Exception {
+            busy = false;
+            if (closed) {
+                handler.cleanup();
+                return;
+            }
+            if (workerError != null) {
+                throw workerError;
+            }
+            if (workerResponse.size() > 0) {
+                enqueue(ByteBuffer.wrap(workerResponse.toByteArray()));
+                workerResponse.reset();
+            }
+            ByteBuffer input = pendingInput != null ? pendingInput : ByteBuffer.allocate(0);
+            pendingInput = null;
+            process(input);
+        }
+
+        private void enqueue(ByteBuffer bytes) {
+            writeQueue.add(bytes);
+            pendingWriteBytes += bytes.remaining();
+        }
+
+        void flush() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer head = writeQueue.peek();
+                pendingWriteBytes -= channel.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                writeQueue.poll();
+            }
+
+            //wait for writability only while there is something left, pause reads if the client lags too much
+            //or while a worker runs one of its commands
+            int interestOps = busy ? 0 : SelectionKey.OP_READ;
+            if (!writeQueue.isEmpty()) {
+                interestOps = SelectionKey.OP_WRITE;
+                if (!busy && pendingWriteBytes < MAX_PENDING_WRITE_BYTES) {
+                    interestOps |= SelectionKey.OP_READ;
+                }
+            }
+            key.interestOps(interestOps);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            //drops the session and closes the channel, once the worker is done with the handler
+            if (!busy) {
+                handler.cleanup();
+            }
+        }
+    }
+
+    private interface WorkerCommand {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+//hotels of one city ordered by local score (highest first, then by id) in a treap with subtree sizes,
+//so updates, "rank of hotel", "top k" and "ranks i..j" are all O(log n) (+ k for the listed hotels)
+public class RankedHotels {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Node> nodesByHotelId = new HashMap<>(); //hotel id -> its node, holds the score it is filed under
+    private final Random random = new Random();
+    private Node root;
+
+    private static class Node {
+        final Hotel hotel;
+        final double score;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(Hotel hotel, double score, int priority) {
+            this.hotel = hotel;
+            this.score = score;
+            this.priority = priority;
+        }
+    }
+
+    //files the hotel under its current local score, the score is read under this lock so the last update always wins
+    public void update(Hotel hotel) {
+        lock.lock();
+        try {
+            Node old = nodesByHotelId.remove(hotel.getId());
+            if (old != null) {
+                root = remove(root, old.score, hotel.getId());
+            }
+            Node node = new Node(hotel, hotel.getLocalScore(), random.nextInt());
+            nodesByHotelId.put(hotel.getId(), node);
+            root = insert(root, node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //re-reads every score, needed when the day changes and all of them decay
+    public void rebuild(List<Hotel> hotels) {
+        lock.lock();
+        try {
+            root = null;
+            nodesByHotelId.clear();
+            for (Hotel hotel : hotels) {
+                Node node = new Node(hotel, hotel.getLocalScore(), random.nextInt());
+                nodesByHotelId.put(hotel.getId(), node);
+                root = insert(root, node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //1 based rank, 0 if the hotel is not in this city
+    public int rankOf(int hotelId) {
+        lock.lock();
+        try {
+            Node target = nodesByHotelId.get(hotelId);
+            if (target == null) {
+                return 0;
+            }
+            int rank = 1;
+            Node node = root;
+            while (node != null) {
+                int cmp = compare(target.score, hotelId, node);
+                if (cmp < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left);
+                    if (cmp == 0) {
+                        return rank;
+                    }
+                    rank++;
+                    node = node.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Hotel> top(int k) {
+        return range(0, k);
+    }
+
+    //hotels ranked from+1 .. to (0 based, to exclusive), in rank order
+    public List<Hotel> range(int from, int to) {
+        lock.lock();
+        try {
+            List<Hotel> hotels = new ArrayList<>(Math.max(0, Math.min(to, size(root)) - from));
+            collect(root, 0, Math.max(0, from), to, hotels);
+            return hotels;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size(root);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //in order walk that skips subtrees entirely outside [from, to), offset is the rank of the subtree's first hotel
+    private static void collect(Node node, int offset, int from, int to, List<Hotel> out) {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+        collect(node.left, offset, from, to, out);
+        int rank = offset + size(node.left);
+        if (rank >= from && rank < to) {
+            out.add(node.hotel);
+        }
+        collect(node.right, rank + 1, from, to, out);
+    }
+
+    //order: higher score first, equal scores by ascending id
+    private static int compare(double score, int hotelId, Node node) {
+        int cmp = Double.compare(node.score, score);
+        return cmp != 0 ? cmp : Integer.compare(hotelId, node.hotel.getId());
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void updateSize(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (inserted.priority > node.priority) {
+            Node[] parts = split(node, inserted.score, inserted.hotel.getId());
+            inserted.left = parts[0];
+            inserted.right = parts[1];
+            updateSize(inserted);
+            return inserted;
+        }
+        if (compare(inserted.score, inserted.hotel.getId(), node) < 0) {
+            node.left = insert(node.left, inserted);
+        } else {
+            node.right = insert(node.right, inserted);
+        }
+        updateSize(node);
+        return node;
+    }
+
+    private static Node remove(Node node, double score, int hotelId) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(score, hotelId, node);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        if (cmp < 0) {
+            node.left = remove(node.left, score, hotelId);
+        } else {
+            node.right = remove(node.right, score, hotelId);
+        }
+        updateSize(node);
+        return node;
+    }
+
+    //splits into the nodes ordered before the key and the ones after it
+    private static Node[] split(Node node, double score, int hotelId) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        if (compare(score, hotelId, node) < 0) {
+            Node[] parts = split(node.left, score, hotelId);
+            node.left = parts[1];
+            updateSize(node);
+            return new Node[]{parts[0], node};
+        }
+        Node[] parts = split(node.right, score, hotelId);
+        node.right = parts[0];
+        updateSize(node);
+        return new Node[]{node, parts[1]};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            updateSize(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        updateSize(right);
+        return right;
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.Collections;
+import java.util.Map;
+
+//all city rankings at a given version, published as a whole so readers never see a half applied update
+public class RankingSnapshot {
+    public static final RankingSnapshot EMPTY = new RankingSnapshot(0, Collections.<String, CityRanking>emptyMap());
+
+    private final long version;
+    private final Map<String, CityRanking> cityRankings; //city -> ranking
+
+    public RankingSnapshot(long version, Map<String, CityRanking> cityRankings) {
+        this.version = version;
+        this.cityRankings = Collections.unmodifiableMap(cityRankings);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public CityRanking getCityRanking(String city) {
+        return cityRankings.get(city);
+    }
+
+    public Map<String, CityRanking> getCityRankings() {
+        return cityRankings;
+    }
+}
@@ -2,42 +2,243 @@ import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class RankingUpdateManagerImpl extends UnicastRemoteObject implements RankingUpdateManager {
     private final Map<String, List<RankingUpdateListener>> cityListeners; //city -> list of listeners for that city
+    private final Map<RankingUpdateListener, DeliveryQueue> deliveryQueues; //listener -> its pending updates
+    //explicit lock instead of synchronized methods so virtual threads don't pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    //remote calls run here, never on the ranking thread. a dead listener blocks its thread for up to
+    //ranking.notify.timeout, so the pool size is how many of them can vanish before live listeners wait too
+    private final ExecutorService deliveryPool;
+    private final int maxPendingUpdates;
 
-    protected RankingUpdateManagerImpl() throws RemoteException {
+    protected RankingUpdateManagerImpl(Properties properties) throws RemoteException {
         cityListeners = new HashMap<>();
+        deliveryQueues = new HashMap<>();
+        int deliveryThreads = Integer.parseInt(properties.getProperty("ranking.notify.threads", "16"));
+        maxPendingUpdates = Integer.parseInt(properties.getProperty("ranking.notify.queue.size", "64"));
+        AtomicInteger threadCount = new AtomicInteger();
+        deliveryPool = Executors.newFixedThreadPool(deliveryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ranking-notify-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerStats.gauge("ranking.notify.pending", this::pendingUpdates);
     }
 
     @Override
-    public synchronized void registerListener(String city, RankingUpdateListener listener) throws RemoteException {
+    public void registerListener(String city, RankingUpdateListener listener) throws RemoteException {
         //make sure registered city has capital first letter as thats how we store them
         String capitalizedCity = city.substring(0, 1).toUpperCase() + city.substring(1);
-        cityListeners.computeIfAbsent(capitalizedCity, k -> new ArrayList<>()).add(listener);
+        lock.lock();
+        try {
+            cityListeners.computeIfAbsent(capitalizedCity, k -> new ArrayList<>()).add(listener);
+            deliveryQueues.computeIfAbsent(listener, DeliveryQueue::new);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void removeListener(String city, RankingUpdateListener listener) throws RemoteException {
+    public void removeListener(String city, RankingUpdateListener listener) throws RemoteException {
         //make sure registered city has capital first letter as thats how we store them
         String capitalizedCity = city.substring(0, 1).toUpperCase() + city.substring(1);
-
-        List<RankingUpdateListener> listeners = cityListeners.get(capitalizedCity);
-        if (listeners != null) {
-            listeners.remove(listener);
-            if (listeners.isEmpty()) {
-                cityListeners.remove(capitalizedCity);
+        lock.lock();
+        try {
+            List<RankingUpdateListener> listeners = cityListeners.get(capitalizedCity);
+            if (listeners != null) {
+                listeners.remove(listener);
+                if (listeners.isEmpty()) {
+                    cityListeners.remove(capitalizedCity);
+                }
+            }
+            DeliveryQueue queue = deliveryQueues.get(listener);
+            if (queue == null) {
+                return;
             }
+            //nothing queued or scheduled may still reach the listener for a city it left
+            if (isRegisteredAnywhere(listener)) {
+                queue.discard(capitalizedCity);
+            } else {
+                deliveryQueues.remove(listener);
+                queue.close();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void notifyListeners(String city, String message) throws RemoteException {
-        List<RankingUpdateListener> listeners = cityListeners.get(city);
-        if (listeners != null) {
+    //queues the update for every listener of the city and returns immediately
+    public void notifyListeners(String city, String message) {
+        List<DeliveryQueue> queues = new ArrayList<>();
+        lock.lock();
+        try {
+            List<RankingUpdateListener> listeners = cityListeners.get(city);
+            if (listeners == null) {
+                return;
+            }
             for (RankingUpdateListener listener : listeners) {
-                listener.notifyRankingUpdate(city, message);
+                queues.add(deliveryQueues.get(listener));
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (DeliveryQueue queue : queues) {
+            queue.offer(city, message);
+        }
+    }
+
+    //updates queued for all listeners and not delivered yet
+    private long pendingUpdates() {
+        List<DeliveryQueue> queues;
+        lock.lock();
+        try {
+            queues = new ArrayList<>(deliveryQueues.values());
+        } finally {
+            lock.unlock();
+        }
+        long pending = 0;
+        for (DeliveryQueue queue : queues) {
+            pending += queue.size();
+        }
+        return pending;
+    }
+
+    //drops a listener that failed or timed out from every city, unless it has been removed and registered again
+    //since, then queue is stale and the new registration stays
+    private void evict(RankingUpdateListener listener, DeliveryQueue queue) {
+        lock.lock();
+        try {
+            if (!deliveryQueues.remove(listener, queue)) {
+                return;
+            }
+            Iterator<List<RankingUpdateListener>> cities = cityListeners.values().iterator();
+            while (cities.hasNext()) {
+                List<RankingUpdateListener> listeners = cities.next();
+                listeners.remove(listener);
+                if (listeners.isEmpty()) {
+                    cities.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //must be called with lock held
+    private boolean isRegisteredAnywhere(RankingUpdateListener listener) {
+        for (List<RankingUpdateListener> listeners : cityListeners.values()) {
+            if (listeners.contains(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //pending updates of one listener, drained by at most one delivery thread at a time
+    private class DeliveryQueue implements Runnable {
+        private final RankingUpdateListener listener;
+        //city -> latest message, a newer ranking of the same city replaces the undelivered one
+        private final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+        private final ReentrantLock queueLock = new ReentrantLock();
+        private boolean scheduled;
+        private boolean closed;
+
+        DeliveryQueue(RankingUpdateListener listener) {
+            this.listener = listener;
+        }
+
+        void offer(String city, String message) {
+            queueLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                pending.put(city, message);
+                //bounded: a listener that can't keep up loses its oldest cities first
+                if (pending.size() > maxPendingUpdates) {
+                    Iterator<String> oldest = pending.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                if (!scheduled) {
+                    scheduled = true;
+                    deliveryPool.execute(this);
+                }
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        //drops the undelivered update of a city the listener no longer follows
+        void discard(String city) {
+            queueLock.lock();
+            try {
+                pending.remove(city);
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        //no more deliveries, a scheduled run finds the queue closed and stops. the call in progress, if any, still ends
+        void close() {
+            queueLock.lock();
+            try {
+                closed = true;
+                pending.clear();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        int size() {
+            queueLock.lock();
+            try {
+                return pending.size();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                String city;
+                String message;
+                queueLock.lock();
+                try {
+                    Iterator<Map.Entry<String, String>> next = pending.entrySet().iterator();
+                    if (closed || !next.hasNext()) {
+                        scheduled = false;
+                        return;
+                    }
+                    Map.Entry<String, String> update = next.next();
+                    city = update.getKey();
+                    message = update.getValue();
+                    next.remove();
+                } finally {
+                    queueLock.unlock();
+                }
+
+                try {
+                    //bounded by the rmi response timeout set in ServerMain
+                    listener.notifyRankingUpdate(city, message);
+                } catch (RemoteException e) {
+                    System.err.println("Removing unreachable ranking listener: " + e.getMessage());
+                    close();
+                    evict(listener, this);
+                    //the next turn finds the queue closed and unschedules it
+                }
             }
         }
     }
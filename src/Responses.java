@@ -0,0 +1,65 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+//tcp protocol responses that are rendered once and then written to clients as raw bytes
+public final class Responses {
+    public static final String END_OF_RESPONSE = "END_OF_RESPONSE";
+    private static final byte[] END_OF_RESPONSE_LINE = encode(END_OF_RESPONSE + "\n");
+    private static final byte[] NO_HOTEL_FOUND = encode("No hotel found\n" + END_OF_RESPONSE + "\n");
+
+    private Responses() {
+    }
+
+    //full searchHotel response for a single hotel
+    public static byte[] searchHotel(HotelSnapshot hotel) {
+        byte[] hotelBytes = hotel.getEncoded();
+        byte[] response = new byte[hotelBytes.length + END_OF_RESPONSE_LINE.length];
+        System.arraycopy(hotelBytes, 0, response, 0, hotelBytes.length);
+        System.arraycopy(END_OF_RESPONSE_LINE, 0, response, hotelBytes.length, END_OF_RESPONSE_LINE.length);
+        return response;
+    }
+
+    //full searchAllHotels response for a ranked city
+    public static byte[] searchAllHotels(List<HotelSnapshot> hotels) {
+        return searchAllHotelsPage(hotels, 0, hotels.size(), null);
+    }
+
+    //hotels ranked from+1 .. to of a city, only those are encoded. a non null cursor is sent last to fetch the next page
+    public static byte[] searchAllHotelsPage(List<HotelSnapshot> hotels, int from, int to, String nextCursor) {
+        return rankedHotelsPage(hotels.subList(from, to), from, hotels.size(), nextCursor);
+    }
+
+    //page holds the hotels ranked first+1 .. first+page.size() out of total
+    public static byte[] rankedHotelsPage(List<HotelSnapshot> page, int first, int total, String nextCursor) {
+        if (page.isEmpty()) {
+            return NO_HOTEL_FOUND;
+        }
+        int count = page.size();
+        byte[][] parts = new byte[count * 2 + 2][];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            parts[2 * i] = encode("Local Rank " + (first + i + 1) + "/" + total + "\n");
+            parts[2 * i + 1] = page.get(i).getEncoded();
+            length += parts[2 * i].length + parts[2 * i + 1].length;
+        }
+        parts[parts.length - 2] = nextCursor == null ? new byte[0] : encode("Next cursor: " + nextCursor + "\n");
+        parts[parts.length - 1] = END_OF_RESPONSE_LINE;
+        length += parts[parts.length - 2].length + parts[parts.length - 1].length;
+
+        byte[] response = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, response, offset, part.length);
+            offset += part.length;
+        }
+        return response;
+    }
+
+    public static byte[] noHotelFound() {
+        return NO_HOTEL_FOUND;
+    }
+
+    public static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
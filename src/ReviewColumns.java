@@ -0,0 +1,128 @@
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+//reviews of one hotel as parallel primitive arrays, 8 bytes per review instead of a Review object, a boxed
+//LocalDate and a list slot. scores are floats: a submitted score is a sum of halves, always exact in a float.
+//not thread safe, Hotel guards it with its lock. in json it keeps the [{"score", "date": {year, month, day}}] list
+//gson always wrote for the reviews of a hotel
+@JsonAdapter(ReviewColumns.Adapter.class)
+public class ReviewColumns {
+    private float[] scores;
+    private int[] epochDays;
+    private int size;
+
+    public ReviewColumns() {
+        this(8);
+    }
+
+    public ReviewColumns(int capacity) {
+        this.scores = new float[Math.max(1, capacity)];
+        this.epochDays = new int[Math.max(1, capacity)];
+    }
+
+    public void add(double score, long epochDay) {
+        if (size == scores.length) {
+            int capacity = size + (size >> 1) + 1;
+            scores = Arrays.copyOf(scores, capacity);
+            epochDays = Arrays.copyOf(epochDays, capacity);
+        }
+        scores[size] = (float) score;
+        epochDays[size] = (int) epochDay;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getScore(int index) {
+        return scores[index];
+    }
+
+    public long getEpochDay(int index) {
+        return epochDays[index];
+    }
+
+    //trimmed to size, a snapshot being saved doesn't need room to grow
+    public ReviewColumns copy() {
+        ReviewColumns copy = new ReviewColumns(0);
+        copy.scores = Arrays.copyOf(scores, size);
+        copy.epochDays = Arrays.copyOf(epochDays, size);
+        copy.size = size;
+        return copy;
+    }
+
+    static class Adapter extends TypeAdapter<ReviewColumns> {
+        @Override
+        public void write(JsonWriter out, ReviewColumns reviews) throws IOException {
+            out.beginArray();
+            for (int i = 0; i < reviews.size; i++) {
+                LocalDate date = LocalDate.ofEpochDay(reviews.epochDays[i]);
+                out.beginObject();
+                out.name("score").value(reviews.getScore(i));
+                out.name("date").beginObject()
+                        .name("year").value(date.getYear())
+                        .name("month").value(date.getMonthValue())
+                        .name("day").value(date.getDayOfMonth())
+                        .endObject();
+                out.endObject();
+            }
+            out.endArray();
+        }
+
+        @Override
+        public ReviewColumns read(JsonReader in) throws IOException {
+            ReviewColumns reviews = new ReviewColumns();
+            in.beginArray();
+            while (in.hasNext()) {
+                double score = 0;
+                LocalDate date = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (name.equals("score")) {
+                        score = in.nextDouble();
+                    } else if (name.equals("date")) {
+                        date = readDate(in);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+                if (date == null) {
+                    throw new IOException("Review without a date at " + in.getPath());
+                }
+                reviews.add(score, date.toEpochDay());
+            }
+            in.endArray();
+            return reviews;
+        }
+
+        private static LocalDate readDate(JsonReader in) throws IOException {
+            int year = 0;
+            int month = 1;
+            int day = 1;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("year")) {
+                    year = in.nextInt();
+                } else if (name.equals("month")) {
+                    month = in.nextInt();
+                } else if (name.equals("day")) {
+                    day = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return LocalDate.of(year, month, day);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+//append only binary log of submitted reviews, split in numbered segments that are dropped once a snapshot covers them.
+//a segment starts with [int MAGIC][int VERSION], then per record
+//  lsn(8) hotelId(4) epochDay(4) rate(8) posizione, pulizia, servizio, prezzo (1 each) username length(2) username crc(4)
+public class ReviewLog {
+    private static final int MAGIC = 0x524C4F47; //"RLOG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FIXED_SIZE = 30; //a record up to the username
+    private static final int MAX_USERNAME_BYTES = 0xFFFF;
+    private static final Record CORRUPTED = new Record(0, null, 0, null, 0, 0, 0, 0, 0);
+    private final Path directory;
+    private final String segmentPrefix;
+    private final String fsyncPolicy; //always, interval or never
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(256); //grows for long usernames
+    private final CRC32 crc = new CRC32();
+    //explicit locks so virtual threads waiting on an fsync don't pin their carrier
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private FileChannel channel;
+    private long segment;
+    private long segmentSize; //bytes of whole records in the current segment
+    private boolean torn; //a failed write left bytes the current segment could not drop, append to a new one
+    private long lastLsn;
+    private volatile long durableLsn;
+
+    public static class Record {
+        private final long lsn;
+        private final String username;
+        private final int hotelId;
+        private final LocalDate date;
+        private final double rate;
+        private final int posizione;
+        private final int pulizia;
+        private final int servizio;
+        private final int prezzo;
+
+        Record(long lsn, String username, int hotelId, LocalDate date, double rate, int posizione, int pulizia, int servizio, int prezzo) {
+            this.lsn = lsn;
+            this.username = username;
+            this.hotelId = hotelId;
+            this.date = date;
+            this.rate = rate;
+            this.posizione = posizione;
+            this.pulizia = pulizia;
+            this.servizio = servizio;
+            this.prezzo = prezzo;
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public int getHotelId() {
+            return hotelId;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public int getPosizione() {
+            return posizione;
+        }
+
+        public int getPulizia() {
+            return pulizia;
+        }
+
+        public int getServizio() {
+            return servizio;
+        }
+
+        public int getPrezzo() {
+            return prezzo;
+        }
+    }
+
+    public ReviewLog(Properties properties, MaintenanceScheduler scheduler) {
+        Path logPath = Paths.get(properties.getProperty("review.log.file.path", "reviews.log")).toAbsolutePath();
+        this.directory = logPath.getParent();
+        this.segmentPrefix = logPath.getFileName().toString() + ".";
+        this.fsyncPolicy = properties.getProperty("review.log.fsync", "interval");
+        if (!fsyncPolicy.equals("always") && !fsyncPolicy.equals("interval") && !fsyncPolicy.equals("never")) {
+            throw new IllegalArgumentException("Unknown review.log.fsync: " + fsyncPolicy);
+        }
+        if (fsyncPolicy.equals("interval")) {
+            long syncInterval = Long.parseLong(properties.getProperty("review.log.sync.interval", "50"));
+            scheduler.schedule("syncReviewLog", syncInterval, true, () -> {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    System.err.println("Error while syncing review log!");
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    //replays every record still on disk, then opens a fresh segment for appends.
+    //minLsn is the highest lsn already contained in the loaded snapshot
+    public void open(long minLsn, Consumer<Record> replay) throws IOException {
+        List<Long> segments = listSegments();
+        long maxLsn = minLsn;
+        int replayed = 0;
+        //one record buffer, a record never exceeds the longest username
+        byte[] record = new byte[FIXED_SIZE + MAX_USERNAME_BYTES + 4];
+        for (long existing : segments) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(existing)), 64 * 1024))) {
+                try {
+                    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                        System.err.println("Ignoring corrupted review log segment " + existing);
+                        continue;
+                    }
+                } catch (EOFException e) {
+                    //crashed before the header was written, nothing to replay
+                    continue;
+                }
+                while (true) {
+                    Record decoded;
+                    try {
+                        decoded = readRecord(in, record);
+                    } catch (EOFException e) {
+                        System.err.println("Ignoring truncated record at the end of review log segment " + existing);
+                        break;
+                    }
+                    if (decoded == null) {
+                        break;
+                    }
+                    if (decoded == CORRUPTED) {
+                        System.err.println("Ignoring corrupted tail of review log segment " + existing);
+                        break;
+                    }
+                    replay.accept(decoded);
+                    maxLsn = Math.max(maxLsn, decoded.getLsn());
+                    replayed++;
+                }
+            }
+        }
+        if (replayed > 0) {
+            System.out.println("Replayed " + replayed + " reviews from the review log");
+        }
+
+        appendLock.lock();
+        try {
+            lastLsn = maxLsn;
+            durableLsn = maxLsn;
+            //never append after a possibly torn record, always start a new segment. a last segment without a single
+            //record (no review since the previous start) is started over instead, so restarts don't pile up empty ones
+            segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+            if (!segments.isEmpty() && Files.size(segmentPath(segment - 1)) <= HEADER_SIZE) {
+                segment--;
+                Files.delete(segmentPath(segment));
+            }
+            openSegment();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    //writes the review of username and returns its lsn, durability depends on the fsync policy (see awaitDurable)
+    public long append(String username, int hotelId, LocalDate date, double rate, int posizione, int pulizia, int servizio, int prezzo) throws IOException {
+        byte[] user = usernameBytes(username);
+        appendLock.lock();
+        try {
+            long lsn = lastLsn + 1;
+            if (recordBuffer.capacity() < recordSize(user)) {
+                recordBuffer = ByteBuffer.allocate(recordSize(user));
+            }
+            recordBuffer.clear();
+            encode(recordBuffer, lsn, user, hotelId, date, rate, posizione, pulizia, servizio, prezzo);
+            recordBuffer.flip();
+            lastLsn = lsn;
+            write(recordBuffer);
+            return lsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    //writes reviews of username for one hotel with consecutive lsns in a single write, returns the lsn of the first one
+    public long append(String username, int hotelId, LocalDate date, List<ReviewRequest> reviews) throws IOException {
+        byte[] user = usernameBytes(username);
+        appendLock.lock();
+        try {
+            long firstLsn = lastLsn + 1;
+            long lsn = firstLsn;
+            ByteBuffer batch = ByteBuffer.allocate(recordSize(user) * reviews.size());
+            for (ReviewRequest review : reviews) {
+                encode(batch, lsn++, user, hotelId, date, review.getRate(), review.getPosizione(), review.getPulizia(),
+                        review.getServizio(), review.getPrezzo());
+            }
+            batch.flip();
+            lastLsn = lsn - 1;
+            write(batch);
+            return firstLsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static byte[] usernameBytes(String username) throws IOException {
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_USERNAME_BYTES) {
+            throw new IOException("Username too long for the review log");
+        }
+        return bytes;
+    }
+
+    private static int recordSize(byte[] username) {
+        return FIXED_SIZE + username.length + 4;
+    }
+
+    //must be called with appendLock held
+    private void encode(ByteBuffer buffer, long lsn, byte[] username, int hotelId, LocalDate date, double rate, int posizione, int pulizia, int servizio, int prezzo) {
+        int start = buffer.position();
+        buffer.putLong(lsn)
+                .putInt(hotelId)
+                .putInt((int) date.toEpochDay())
+                .putDouble(rate)
+                .put((byte) posizione)
+                .put((byte) pulizia)
+                .put((byte) servizio)
+                .put((byte) prezzo)
+                .putShort((short) username.length)
+                .put(username);
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    //must be called with appendLock held. lsns of a failed write are used up, never handed out twice.
+    //a failed write can leave part of the buffer in the segment and replay stops at the first torn record, so the
+    //segment is truncated back to its last whole record before the error is reported. if even that fails appends
+    //move on to a new segment, replay then skips the torn tail and carries on with the next segment
+    private void write(ByteBuffer buffer) throws IOException {
+        if (torn) {
+            startSegment();
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            discardTornTail();
+            throw e;
+        }
+        segmentSize += buffer.limit();
+    }
+
+    //must be called with appendLock held
+    private void discardTornTail() {
+        try {
+            channel.truncate(segmentSize);
+            return;
+        } catch (IOException e) {
+            System.err.println("Could not truncate review log segment " + segment + ", starting a new one: " + e.getMessage());
+        }
+        torn = true;
+        try {
+            startSegment();
+        } catch (IOException e) {
+            //retried by the next append
+            System.err.println("Could not start a new review log segment: " + e.getMessage());
+        }
+    }
+
+    //must be called with appendLock held. the old segment is synced first, sync only forces the current one
+    private void startSegment() throws IOException {
+        //already closed if opening the new segment failed last time
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+        segment++;
+        openSegment();
+    }
+
+    //with fsync=always blocks until lsn is on disk, one fsync covers every review appended while waiting (group commit)
+    public void awaitDurable(long lsn) throws IOException {
+        if (fsyncPolicy.equals("always") && durableLsn < lsn) {
+            sync();
+        }
+    }
+
+    public void sync() throws IOException {
+        syncLock.lock();
+        try {
+            FileChannel current;
+            long target;
+            appendLock.lock();
+            try {
+                current = channel;
+                target = lastLsn;
+            } finally {
+                appendLock.unlock();
+            }
+            if (durableLsn >= target || current == null) {
+                return;
+            }
+            current.force(false);
+            durableLsn = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    //closes the current segment and starts a new one, returns the first segment not covered by a snapshot taken now
+    public long rollover() throws IOException {
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                startSegment();
+                durableLsn = lastLsn;
+                return segment;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    //drops the segments whose reviews are all contained in a saved snapshot
+    public void deleteSegmentsBefore(long firstLiveSegment) throws IOException {
+        for (long existing : listSegments()) {
+            if (existing < firstLiveSegment) {
+                if (!segmentPath(existing).toFile().delete()) {
+                    System.err.println("Could not delete review log segment " + existing);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                channel.force(false);
+                channel.close();
+                durableLsn = lastLsn;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    //null at the end of the segment, CORRUPTED if the crc doesn't match. EOFException if the segment ends mid record
+    private Record readRecord(DataInputStream in, byte[] record) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        record[0] = (byte) first;
+        in.readFully(record, 1, FIXED_SIZE - 1);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int usernameLength = buffer.getShort(FIXED_SIZE - 2) & 0xFFFF;
+        in.readFully(record, FIXED_SIZE, usernameLength + 4);
+        crc.reset();
+        crc.update(record, 0, FIXED_SIZE + usernameLength);
+        if (buffer.getInt(FIXED_SIZE + usernameLength) != (int) crc.getValue()) {
+            return CORRUPTED;
+        }
+        long lsn = buffer.getLong();
+        int hotelId = buffer.getInt();
+        LocalDate date = LocalDate.ofEpochDay(buffer.getInt());
+        double rate = buffer.getDouble();
+        int posizione = buffer.get();
+        int pulizia = buffer.get();
+        int servizio = buffer.get();
+        int prezzo = buffer.get();
+        String username = new String(record, FIXED_SIZE, usernameLength, StandardCharsets.UTF_8);
+        return new Record(lsn, username, hotelId, date, rate, posizione, pulizia, servizio, prezzo);
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(segmentPrefix)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(segmentPrefix.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(segmentPrefix + String.format("%06d", number));
+    }
+
+    //must be called with appendLock held, opens segment and writes its header. a failure leaves the log torn so the
+    //next append starts over with another segment
+    private void openSegment() throws IOException {
+        torn = true;
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentSize = HEADER_SIZE;
+        torn = false;
+    }
+}
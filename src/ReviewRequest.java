@@ -0,0 +1,55 @@
+//one review of an insertReviews batch, scores already validated
+public class ReviewRequest {
+    public enum Status {
+        ADDED,
+        HOTEL_NOT_FOUND,
+        NOT_SAVED, //review log write failed, nothing was applied
+        UNCONFIRMED //applied and logged but the fsync failed, a crash may still lose it. sending it again would count it twice
+    }
+
+    private final String hotelName;
+    private final String city;
+    private final double rate;
+    private final int posizione;
+    private final int pulizia;
+    private final int servizio;
+    private final int prezzo;
+
+    public ReviewRequest(String hotelName, String city, double rate, int posizione, int pulizia, int servizio, int prezzo) {
+        this.hotelName = hotelName;
+        this.city = city;
+        this.rate = rate;
+        this.posizione = posizione;
+        this.pulizia = pulizia;
+        this.servizio = servizio;
+        this.prezzo = prezzo;
+    }
+
+    public String getHotelName() {
+        return hotelName;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getPosizione() {
+        return posizione;
+    }
+
+    public int getPulizia() {
+        return pulizia;
+    }
+
+    public int getServizio() {
+        return servizio;
+    }
+
+    public int getPrezzo() {
+        return prezzo;
+    }
+}
@@ -11,23 +11,32 @@ public class ServerMain {
     public static void main(String[] args) {
         loadProperties();
         try {
+            //bound every remote callback so a dead or slow client can't hold a delivery thread forever
+            String callbackTimeout = properties.getProperty("ranking.notify.timeout", "5000");
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", callbackTimeout);
+            System.setProperty("sun.rmi.transport.proxy.connectTimeout", callbackTimeout);
             int rmiPort = Integer.parseInt(properties.getProperty("rmi.port"));
             LocateRegistry.createRegistry(rmiPort);
-            UserRegisterImpl userRegister = new UserRegisterImpl(properties);
+            //saves, ranking updates and log syncs, stopped on exit after a last save of users and hotels
+            MaintenanceScheduler scheduler = new MaintenanceScheduler(properties);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Shutting down, saving data...");
+                scheduler.shutdown();
+            }, "shutdown-save"));
+            UserRegisterImpl userRegister = new UserRegisterImpl(properties, scheduler);
             Naming.rebind("rmi://localhost:" + rmiPort + "/UserRegister", userRegister);
             System.out.println("UserRegister Server is ready.");
 
-            RankingUpdateManagerImpl rankingUpdateManager = new RankingUpdateManagerImpl();
+            RankingUpdateManagerImpl rankingUpdateManager = new RankingUpdateManagerImpl(properties);
             Naming.rebind("rmi://localhost:" + rmiPort + "/RankingUpdateManager", rankingUpdateManager);
             System.out.println("RankingUpdateManager Server is ready.");
 
-            HotelManager hotelManager = new HotelManager(rankingUpdateManager, properties);
+            HotelManager hotelManager = new HotelManager(rankingUpdateManager, userRegister, properties, scheduler);
 
             //start TCP server in new thread
             new Thread(() -> {
                 try {
-                    int tcpPort = Integer.parseInt(properties.getProperty("tcp.port"));
-                    TCPServer.start(userRegister, hotelManager, tcpPort);
+                    TCPServer.start(userRegister, hotelManager, properties);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
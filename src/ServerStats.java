@@ -0,0 +1,92 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+//process wide latency histograms and gauges, shown by the stats() command and published over JMX under "hotelier:"
+public final class ServerStats implements ServerStatsMXBean {
+    private static final ServerStats INSTANCE = new ServerStats();
+    private static final long START_NANOS = System.nanoTime();
+    //sorted so the report lists them in a stable order
+    private static final Map<String, LatencyHistogram> latencies = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    static {
+        register("hotelier:type=ServerStats", INSTANCE);
+    }
+
+    private ServerStats() {
+    }
+
+    //histogram of the named operation, created and published on first use
+    public static LatencyHistogram latency(String name) {
+        LatencyHistogram histogram = latencies.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        LatencyHistogram created = new LatencyHistogram();
+        histogram = latencies.putIfAbsent(name, created);
+        if (histogram == null) {
+            register("hotelier:type=Latency,name=" + name, created);
+            return created;
+        }
+        return histogram;
+    }
+
+    //a value read whenever stats are shown, e.g. a queue length
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        long uptimeSeconds = INSTANCE.getUptimeSeconds();
+        report.append("uptime: ").append(uptimeSeconds).append("s\n");
+        for (Map.Entry<String, Long> gauge : INSTANCE.getGauges().entrySet()) {
+            report.append(gauge.getKey()).append(": ").append(gauge.getValue()).append("\n");
+        }
+        report.append(String.format("%-18s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "per sec", "p50 us", "p99 us", "p999 us", "max us"));
+        for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+            LatencyHistogram histogram = latency.getValue();
+            long count = histogram.getCount();
+            report.append(String.format("%-18s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    latency.getKey(), count, count / (double) Math.max(1, uptimeSeconds),
+                    histogram.getP50Micros(), histogram.getP99Micros(), histogram.getP999Micros(), histogram.getMaxMicros()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return (System.nanoTime() - START_NANOS) / 1_000_000_000L;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    private static void register(String name, Object mxBean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(mxBean, new ObjectName(name));
+        } catch (JMException e) {
+            //stats still work through the stats() command
+            System.err.println("Could not register MBean " + name + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+import java.util.Map;
+
+public interface ServerStatsMXBean {
+    long getUptimeSeconds();
+    Map<String, Long> getGauges();
+    String getReport();
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+//who is logged in where: username -> owning session, claimed atomically so logins never queue on a global lock
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, Session> sessionsByUser = new ConcurrentHashMap<>();
+
+    //login state of a single connection
+    public static class Session {
+        private final AtomicReference<String> username = new AtomicReference<>();
+
+        public String getUsername() {
+            return username.get();
+        }
+    }
+
+    public Session newSession() {
+        return new Session();
+    }
+
+    public boolean isLoggedIn(String username) {
+        return sessionsByUser.containsKey(username);
+    }
+
+    //binds username to session unless either of them is already taken
+    public boolean login(Session session, String username) {
+        if (session.getUsername() != null) {
+            return false;
+        }
+        if (sessionsByUser.putIfAbsent(username, session) != null) {
+            return false;
+        }
+        if (!session.username.compareAndSet(null, username)) {
+            sessionsByUser.remove(username, session);
+            return false;
+        }
+        return true;
+    }
+
+    public LogoutResult logout(Session session, String username) {
+        Session owner = sessionsByUser.get(username);
+        if (owner == null) {
+            return LogoutResult.NOT_LOGGED_IN;
+        }
+        if (owner != session || !sessionsByUser.remove(username, session)) {
+            return LogoutResult.OTHER_SESSION;
+        }
+        session.username.compareAndSet(username, null);
+        return LogoutResult.LOGGED_OUT;
+    }
+
+    //drops whatever user the session owns, used when the connection goes away
+    public void release(Session session) {
+        String username = session.username.getAndSet(null);
+        if (username != null) {
+            sessionsByUser.remove(username, session);
+        }
+    }
+
+    public int size() {
+        return sessionsByUser.size();
+    }
+
+    public enum LogoutResult {
+        LOGGED_OUT, NOT_LOGGED_IN, OTHER_SESSION
+    }
+}
@@ -1,29 +1,82 @@
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TCPServer {
-    private static final ExecutorService threadPool = Executors.newFixedThreadPool(10);
+    private static ExecutorService threadPool;
     private static UserRegisterImpl userRegister;
     private static HotelManager hotelManager;
-    private static final String END_OF_RESPONSE = "END_OF_RESPONSE";
-    private static final Map<Socket, String> loggedInUsers = new HashMap<>(); //socket -> username
-    private static final Map<String, Socket> userSockets = new HashMap<>(); //username -> socket
-    private static final ReentrantReadWriteLock loggedInUsersLock = new ReentrantReadWriteLock();
-    private static final ReentrantReadWriteLock userSocketsLock = new ReentrantReadWriteLock();
+    private static final String END_OF_RESPONSE = Responses.END_OF_RESPONSE;
+    private static final int MAX_BATCH_REVIEWS = 1000;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final String CURSOR_PREFIX = "v"; //searchAllHotels cursors are v<ranking version>-<offset>
+    private static final SessionRegistry sessions = new SessionRegistry(); //username -> logged in connection
+    private static final AtomicInteger activeConnections = new AtomicInteger();
+    //fixed set, so unknown command names can't create histograms
+    private static final Map<String, LatencyHistogram> commandLatencies = new HashMap<>();
 
-    public static void start(UserRegisterImpl userRegister, HotelManager hotelManager, int tcpPort) throws Exception {
+    static {
+        for (String command : new String[]{"login", "logout", "searchHotel", "searchAllHotels", "insertReview",
+                "insertReviews", "showMyBadges", "hotelRank", "binary", "stats"}) {
+            commandLatencies.put(command, ServerStats.latency(command));
+        }
+        ServerStats.gauge("tcp.connections.active", activeConnections::get);
+        ServerStats.gauge("tcp.sessions", sessions::size);
+    }
+
+    public static void start(UserRegisterImpl userRegister, HotelManager hotelManager, Properties properties) throws Exception {
         TCPServer.userRegister = userRegister;
         TCPServer.hotelManager = hotelManager;
 
+        int tcpPort = Integer.parseInt(properties.getProperty("tcp.port"));
+        String mode = properties.getProperty("tcp.server.mode", "pool");
+        switch (mode) {
+            case "pool":
+                int poolSize = Integer.parseInt(properties.getProperty("tcp.pool.size", "10"));
+                threadPool = Executors.newFixedThreadPool(poolSize);
+                //connections waiting for a free pool thread
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+                ServerStats.gauge("tcp.pool.queue", () -> pool.getQueue().size());
+                ServerStats.gauge("tcp.pool.busy", pool::getActiveCount);
+                startBlocking(tcpPort);
+                break;
+            case "virtual":
+                threadPool = newVirtualThreadPerTaskExecutor();
+                startBlocking(tcpPort);
+                break;
+            case "nio":
+                int ioThreads = Integer.parseInt(properties.getProperty("tcp.nio.threads", "2"));
+                int workerThreads = Integer.parseInt(properties.getProperty("tcp.nio.workers", "8"));
+                new NioTCPServer(tcpPort, ioThreads, workerThreads).start();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tcp.server.mode: " + mode);
+        }
+    }
+
+    private static void startBlocking(int tcpPort) throws Exception {
         ServerSocket serverSocket = new ServerSocket(tcpPort);
         System.out.println("TCP Server is ready on port " + tcpPort);
 
@@ -34,96 +87,53 @@ public class TCPServer {
         }
     }
 
+    //looked up reflectively so the server still builds and runs on JDKs without virtual threads
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("tcp.server.mode=virtual requires a JDK with virtual threads (21+)", e);
+        }
+    }
+
     static class RequestHandler implements Runnable {
-        private Socket clientSocket;
+        private final Socket clientSocket;
+        private final SessionRegistry.Session session = sessions.newSession();
+        private volatile boolean binary; //set by binary(), from then on the connection speaks BinaryProtocol frames
+        private final BinaryProtocol.ResponseFrame responseFrame = new BinaryProtocol.ResponseFrame();
+        private final PrintWriter frameOut = new PrintWriter(new OutputStreamWriter(responseFrame, StandardCharsets.UTF_8));
 
         public RequestHandler(Socket clientSocket) {
             this.clientSocket = clientSocket;
+            activeConnections.incrementAndGet();
         }
 
         @Override
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+            //raw bytes instead of a reader, the stream may switch from text lines to binary frames.
+            //responses are buffered and flushed once no further pipelined command is already waiting
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+                 OutputStream rawOut = new BufferedOutputStream(clientSocket.getOutputStream(), 16 * 1024);
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(unflushable(rawOut), StandardCharsets.UTF_8))) {
 
-                String command;
-
-                while ((command = in.readLine()) != null) {
-
-                    //parse client message for command args
-                    String[] parts = command.split("\\(", 2);
-                    if (parts.length != 2) {
-                        out.println("Invalid command format");
-                        out.println(END_OF_RESPONSE);
-                        continue;
+                ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+                while (true) {
+                    if (in.available() == 0) {
+                        out.flush();
+                        rawOut.flush();
                     }
-                    String cmd = parts[0];
-                    String[] args = parts[1].replace(")", "").split(",");
-
-                    //switch over the possible operations
-                    switch (cmd) {
-                        case "login":
-                            if (args.length != 2) {
-                                out.println("Invalid arguments format, usage: login([username],[password])");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            handleLogin(out, args[0], args[1]);
+                    if (binary) {
+                        ByteBuffer frame = readFrame(in);
+                        if (frame == null) {
                             break;
-                        case "logout":
-                            if (args.length != 1) {
-                                out.println("Invalid arguments format, usage: logout([username])");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            handleLogout(out, args[0]);
-                            break;
-                        case "searchHotel":
-                            if (args.length != 2) {
-                                out.println("Invalid arguments format, usage: searchHotel([hotelName],[cityName])");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            handleSearchHotel(out, args[0], args[1]);
-                            break;
-                        case "searchAllHotels":
-                            if (args.length != 1) {
-                                out.println("Invalid arguments format, usage: searchAllHotels([cityName])");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            handleSearchAllHotels(out, args[0]);
-                            break;
-                        case "insertReview":
-                            if (args.length != 7) {
-                                out.println("Invalid arguments format, usage: " +
-                                        "insertReview([hotelName],[cityName],[globalScore]" +
-                                        ",[positionScore],[cleaningScore],[serviceScore],[priceScore])");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            int globalScore = Integer.parseInt(args[2]);
-                            int positionScore = Integer.parseInt(args[3]);
-                            int cleaningScore = Integer.parseInt(args[4]);
-                            int serviceScore = Integer.parseInt(args[5]);
-                            int priceScore = Integer.parseInt(args[6]);
-                            if (!isScoreValid(globalScore, positionScore, cleaningScore, serviceScore, priceScore, out)) {
-                                continue;
-                            }
-                            handleInsertReview(out, args[0], args[1], globalScore, positionScore, cleaningScore, serviceScore, priceScore);
-                            break;
-                        case "showMyBadges":
-                            if (args.length != 1 || !args[0].isEmpty()) {
-                                out.println("Invalid arguments format, usage: showMyBadges()");
-                                out.println(END_OF_RESPONSE);
-                                continue;
-                            }
-                            handleShowMyBadges(out);
-                            break;
-                        default:
-                            out.println("Unknown command");
-                            out.println(END_OF_RESPONSE);
+                        }
+                        handleFrame(frame, rawOut);
+                    } else {
+                        String command = readLine(in, lineBuffer);
+                        if (command == null) {
                             break;
+                        }
+                        handleCommand(command, out, rawOut);
                     }
                 }
             } catch (Exception e) {
@@ -134,6 +144,287 @@ public class TCPServer {
             }
         }
 
+        //out.flush() only moves text into rawOut's buffer, the socket itself is flushed once per batch
+        private static OutputStream unflushable(OutputStream rawOut) {
+            return new FilterOutputStream(rawOut) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                }
+            };
+        }
+
+        //utf-8 line without its terminator, null at end of stream
+        private static String readLine(InputStream in, ByteArrayOutputStream lineBuffer) throws IOException {
+            lineBuffer.reset();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    if (lineBuffer.size() == 0) {
+                        return null;
+                    }
+                    break;
+                }
+                lineBuffer.write(b);
+                if (lineBuffer.size() > MAX_LINE_LENGTH) {
+                    throw new IOException("Line too long");
+                }
+            }
+            byte[] bytes = lineBuffer.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        //frame without its length prefix, null at end of stream
+        private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (!BinaryProtocol.isValidLength(length)) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            return ByteBuffer.wrap(frame);
+        }
+
+        boolean isBinary() {
+            return binary;
+        }
+
+        //commands that can wait on the review log (an fsync, a save cutting the log), the nio server runs them
+        //on workers instead of its selector threads
+        static boolean mayBlock(String command) {
+            int end = command.indexOf('(');
+            String cmd = end < 0 ? command : command.substring(0, end);
+            return cmd.equals("insertReview") || cmd.equals("insertReviews");
+        }
+
+        static boolean mayBlock(ByteBuffer frame) {
+            byte opcode = frame.get(frame.position());
+            return opcode == BinaryProtocol.INSERT_REVIEW || opcode == BinaryProtocol.INSERT_REVIEWS;
+        }
+
+        //decodes one binary request and writes its response frame to rawOut, fields are read in declaration order
+        void handleFrame(ByteBuffer frame, OutputStream rawOut) throws IOException {
+            long start = System.nanoTime();
+            byte opcode = frame.get();
+            int requestId = frame.getInt();
+            responseFrame.begin(opcode, requestId);
+            try {
+                switch (opcode) {
+                    case BinaryProtocol.LOGIN:
+                        handleLogin(frameOut, BinaryProtocol.readString(frame), BinaryProtocol.readString(frame));
+                        break;
+                    case BinaryProtocol.LOGOUT:
+                        handleLogout(frameOut, BinaryProtocol.readString(frame));
+                        break;
+                    case BinaryProtocol.SEARCH_HOTEL:
+                        handleSearchHotel(frameOut, responseFrame, BinaryProtocol.readString(frame), BinaryProtocol.readString(frame));
+                        break;
+                    case BinaryProtocol.SEARCH_ALL_HOTELS:
+                        handleSearchAllHotels(frameOut, responseFrame, BinaryProtocol.readString(frame));
+                        break;
+                    case BinaryProtocol.SEARCH_ALL_HOTELS_PAGE:
+                        String pageCity = BinaryProtocol.readString(frame);
+                        int pageLimit = frame.getInt();
+                        String position = BinaryProtocol.readString(frame);
+                        if (pageLimit <= 0) {
+                            frameOut.println("Invalid arguments format, limit must be positive");
+                            frameOut.println(END_OF_RESPONSE);
+                        } else {
+                            handleSearchAllHotelsPage(frameOut, responseFrame, pageCity, pageLimit, position);
+                        }
+                        break;
+                    case BinaryProtocol.INSERT_REVIEW:
+                        String hotelName = BinaryProtocol.readString(frame);
+                        String city = BinaryProtocol.readString(frame);
+                        int globalScore = frame.get();
+                        int positionScore = frame.get();
+                        int cleaningScore = frame.get();
+                        int serviceScore = frame.get();
+                        int priceScore = frame.get();
+                        if (isScoreValid(globalScore, positionScore, cleaningScore, serviceScore, priceScore, frameOut)) {
+                            handleInsertReview(frameOut, hotelName, city, globalScore, positionScore, cleaningScore, serviceScore, priceScore);
+                        }
+                        break;
+                    case BinaryProtocol.INSERT_REVIEWS:
+                        ReviewRequest[] reviews = new ReviewRequest[frame.getShort() & 0xFFFF];
+                        for (int i = 0; i < reviews.length; i++) {
+                            reviews[i] = newReview(BinaryProtocol.readString(frame), BinaryProtocol.readString(frame),
+                                    frame.get(), frame.get(), frame.get(), frame.get(), frame.get());
+                        }
+                        insertReviews(frameOut, reviews);
+                        break;
+                    case BinaryProtocol.HOTEL_RANK:
+                        handleHotelRank(frameOut, BinaryProtocol.readString(frame), BinaryProtocol.readString(frame));
+                        break;
+                    case BinaryProtocol.SHOW_MY_BADGES:
+                        handleShowMyBadges(frameOut);
+                        break;
+                    default:
+                        frameOut.println("Unknown command");
+                        frameOut.println(END_OF_RESPONSE);
+                        break;
+                }
+            } catch (BufferUnderflowException e) {
+                //fields missing, nothing was executed yet
+                frameOut.flush();
+                responseFrame.begin(opcode, requestId);
+                frameOut.println("Invalid arguments format");
+                frameOut.println(END_OF_RESPONSE);
+            }
+            frameOut.flush();
+            responseFrame.finish(rawOut);
+            LatencyHistogram latency = commandLatencies.get(BinaryProtocol.commandName(opcode));
+            if (latency != null) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        //parses a single command line and writes its full response (terminated by END_OF_RESPONSE) to out,
+        //pre-rendered responses go straight to rawOut
+        void handleCommand(String command, PrintWriter out, OutputStream rawOut) throws IOException {
+            //parse client message for command args
+            String[] parts = command.split("\\(", 2);
+            if (parts.length != 2) {
+                out.println("Invalid command format");
+                out.println(END_OF_RESPONSE);
+                return;
+            }
+            String cmd = parts[0];
+            String[] args = parts[1].replace(")", "").split(",");
+
+            LatencyHistogram latency = commandLatencies.get(cmd);
+            long start = System.nanoTime();
+            try {
+                executeCommand(cmd, parts[1], args, out, rawOut);
+            } finally {
+                if (latency != null) {
+                    latency.record(System.nanoTime() - start);
+                }
+            }
+        }
+
+        private void executeCommand(String cmd, String argsText, String[] args, PrintWriter out, OutputStream rawOut) throws IOException {
+            //switch over the possible operations
+            switch (cmd) {
+                case "login":
+                    if (args.length != 2) {
+                        out.println("Invalid arguments format, usage: login([username],[password])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleLogin(out, args[0], args[1]);
+                    break;
+                case "logout":
+                    if (args.length != 1) {
+                        out.println("Invalid arguments format, usage: logout([username])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleLogout(out, args[0]);
+                    break;
+                case "searchHotel":
+                    if (args.length != 2) {
+                        out.println("Invalid arguments format, usage: searchHotel([hotelName],[cityName])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleSearchHotel(out, rawOut, args[0], args[1]);
+                    break;
+                case "searchAllHotels":
+                    if (args.length == 1) {
+                        handleSearchAllHotels(out, rawOut, args[0]);
+                        return;
+                    }
+                    int limit = args.length <= 3 ? parseNonNegative(args[1]) : 0;
+                    if (limit <= 0) {
+                        out.println("Invalid arguments format, usage: searchAllHotels([cityName]) or " +
+                                "searchAllHotels([cityName],[limit]) or searchAllHotels([cityName],[limit],[offset or cursor])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleSearchAllHotelsPage(out, rawOut, args[0], limit, args.length == 3 ? args[2] : "");
+                    break;
+                case "insertReview":
+                    if (args.length != 7) {
+                        out.println("Invalid arguments format, usage: " +
+                                "insertReview([hotelName],[cityName],[globalScore]" +
+                                ",[positionScore],[cleaningScore],[serviceScore],[priceScore])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    int globalScore = Integer.parseInt(args[2]);
+                    int positionScore = Integer.parseInt(args[3]);
+                    int cleaningScore = Integer.parseInt(args[4]);
+                    int serviceScore = Integer.parseInt(args[5]);
+                    int priceScore = Integer.parseInt(args[6]);
+                    if (!isScoreValid(globalScore, positionScore, cleaningScore, serviceScore, priceScore, out)) {
+                        return;
+                    }
+                    handleInsertReview(out, args[0], args[1], globalScore, positionScore, cleaningScore, serviceScore, priceScore);
+                    break;
+                case "insertReviews":
+                    //reviews separated by ';', each with the insertReview arguments
+                    handleInsertReviews(out, argsText.replace(")", "").split(";"));
+                    break;
+                case "hotelRank":
+                    if (args.length != 2) {
+                        out.println("Invalid arguments format, usage: hotelRank([hotelName],[cityName])");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleHotelRank(out, args[0], args[1]);
+                    break;
+                case "binary":
+                    if (args.length != 1 || !args[0].isEmpty()) {
+                        out.println("Invalid arguments format, usage: binary()");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    //last text response, the next bytes from the client are frames
+                    binary = true;
+                    out.println("Binary protocol enabled");
+                    out.println(END_OF_RESPONSE);
+                    //frames go straight to rawOut, this text must be ahead of them
+                    out.flush();
+                    break;
+                case "stats":
+                    //admin only, answered to connections from this machine
+                    if (!clientSocket.getInetAddress().isLoopbackAddress()) {
+                        out.println("Unknown command");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    out.print(ServerStats.report());
+                    out.println(END_OF_RESPONSE);
+                    break;
+                case "showMyBadges":
+                    if (args.length != 1 || !args[0].isEmpty()) {
+                        out.println("Invalid arguments format, usage: showMyBadges()");
+                        out.println(END_OF_RESPONSE);
+                        return;
+                    }
+                    handleShowMyBadges(out);
+                    break;
+                default:
+                    out.println("Unknown command");
+                    out.println(END_OF_RESPONSE);
+                    break;
+            }
+        }
+
         private boolean isScoreValid(int globalScore, int positionScore, int cleaningScore, int serviceScore, int priceScore, PrintWriter out) {
             if (globalScore < 1 || globalScore > 5 || positionScore < 1 || positionScore > 5 ||
                     cleaningScore < 1 || cleaningScore > 5 || serviceScore < 1 ||
@@ -145,142 +436,278 @@ public class TCPServer {
             return true;
         }
 
-        private void cleanup() {
-            loggedInUsersLock.writeLock().lock();
-            userSocketsLock.writeLock().lock();
+        void cleanup() {
+            //close socket, release the user this connection was logged in as
+            activeConnections.decrementAndGet();
+            sessions.release(session);
             try {
-                //close socket, remove from user / socket maps
                 clientSocket.close();
-                String username = loggedInUsers.remove(clientSocket);
-                if (username != null) {
-                    userSockets.remove(username);
-                }
             } catch (Exception e) {
                 e.printStackTrace();
-            } finally {
-                userSocketsLock.writeLock().unlock();
-                loggedInUsersLock.writeLock().unlock();
             }
         }
 
         private void handleShowMyBadges(PrintWriter out) {
-            loggedInUsersLock.readLock().lock();
-            try {
-                String username = loggedInUsers.get(clientSocket);
-                if (username == null) {
-                    out.println("User needs to be logged in to request badges");
-                    out.println(END_OF_RESPONSE);
-                    return;
-                }
-                String badge = userRegister.getUser(username).getBadge();
-                if (badge == null) {
-                    out.println("Submit at least one review to start collecting badges");
-                    out.println(END_OF_RESPONSE);
-                    return;
-                }
-                out.println(badge);
+            String username = session.getUsername();
+            if (username == null) {
+                out.println("User needs to be logged in to request badges");
                 out.println(END_OF_RESPONSE);
-            } finally {
-                loggedInUsersLock.readLock().unlock();
+                return;
             }
+            String badge = userRegister.getUser(username).getBadge();
+            if (badge == null) {
+                out.println("Submit at least one review to start collecting badges");
+                out.println(END_OF_RESPONSE);
+                return;
+            }
+            out.println(badge);
+            out.println(END_OF_RESPONSE);
         }
 
         private void handleInsertReview(PrintWriter out, String hotelName, String city, int globalScore,
                                         int positionScore, int cleaningScore, int serviceScore, int priceScore) {
-            loggedInUsersLock.readLock().lock();
+            String username = session.getUsername();
+            if (username == null) {
+                out.println("User needs to be logged in to insert a review");
+                out.println(END_OF_RESPONSE);
+                return;
+            }
             try {
-                String username = loggedInUsers.get(clientSocket);
-                if (username == null) {
-                    out.println("User needs to be logged in to insert a review");
+                switch (hotelManager.submitReview(username, hotelName, city, globalScore, positionScore, cleaningScore, serviceScore, priceScore)) {
+                    case ADDED:
+                        out.println("Review added successfully");
+                        break;
+                    case UNCONFIRMED:
+                        //already applied, a retry would add it twice
+                        out.println("Review added, but it could not be flushed to disk yet. Do not send it again");
+                        break;
+                    default:
+                        out.println("Hotel " + hotelName + " not found in " + city + "!");
+                        break;
+                }
+            } catch (IOException e) {
+                System.err.println("Error while logging review!");
+                e.printStackTrace();
+                out.println("Review could not be saved, please retry");
+            }
+            out.println(END_OF_RESPONSE);
+        }
+
+        private void handleSearchAllHotels(PrintWriter out, OutputStream rawOut, String city) throws IOException {
+            CityRanking cityRanking = hotelManager.getCityRanking(city);
+            writeBytes(out, rawOut, cityRanking == null ? Responses.noHotelFound() : cityRanking.getSearchAllHotelsResponse());
+        }
+
+        //position is empty (first page), a cursor from a previous page or an offset. the first page and cursors read the
+        //published ranking and a cursor keeps reading the version it was issued for, an offset reads the live ranking
+        private void handleSearchAllHotelsPage(PrintWriter out, OutputStream rawOut, String city, int limit, String position) throws IOException {
+            CityRanking cityRanking;
+            int offset = 0;
+            if (position.startsWith(CURSOR_PREFIX)) {
+                long version;
+                try {
+                    int separator = position.indexOf('-');
+                    version = Long.parseLong(position.substring(CURSOR_PREFIX.length(), separator));
+                    offset = Integer.parseInt(position.substring(separator + 1));
+                } catch (RuntimeException e) {
+                    out.println("Invalid cursor");
                     out.println(END_OF_RESPONSE);
                     return;
                 }
-                if (hotelManager.submitReview(hotelName, city, globalScore, positionScore, cleaningScore, serviceScore, priceScore)) {
-                    userRegister.getUser(username).incrementReviewCounter();
-                    out.println("Review added successfully");
-                } else {
-                    out.println("Hotel " + hotelName + " not found in " + city + "!");
+                cityRanking = hotelManager.getCityRanking(city, version);
+                if (cityRanking == null) {
+                    out.println("Cursor expired, rankings changed too many times since the first page. Start again without a cursor");
+                    out.println(END_OF_RESPONSE);
+                    return;
                 }
-                out.println(END_OF_RESPONSE);
-            } finally {
-                loggedInUsersLock.readLock().unlock();
+            } else if (!position.isEmpty()) {
+                handleLiveRankingPage(out, rawOut, city, limit, parseNonNegative(position));
+                return;
+            } else {
+                cityRanking = hotelManager.getCityRanking(city);
             }
+            if (cityRanking == null) {
+                writeBytes(out, rawOut, Responses.noHotelFound());
+                return;
+            }
+
+            List<HotelSnapshot> hotels = cityRanking.getHotels();
+            int from = Math.min(offset, hotels.size());
+            int to = (int) Math.min((long) from + limit, hotels.size());
+            String nextCursor = to < hotels.size() ? CURSOR_PREFIX + cityRanking.getVersion() + "-" + to : null;
+            writeBytes(out, rawOut, Responses.searchAllHotelsPage(hotels, from, to, nextCursor));
         }
 
-        private void handleSearchAllHotels(PrintWriter out, String city) {
-            List<Hotel> hotels = hotelManager.searchHotelsByCity(city);
-            if (hotels.isEmpty()) {
-                out.println("No hotel found");
+        //hotels ranked offset+1 .. offset+limit right now, only those are copied. the next page is fetched by offset too
+        private void handleLiveRankingPage(PrintWriter out, OutputStream rawOut, String city, int limit, int offset) throws IOException {
+            if (offset < 0) {
+                out.println("Invalid offset");
                 out.println(END_OF_RESPONSE);
                 return;
             }
-            int i = 1;
+            RankedHotels rankedHotels = hotelManager.getLiveRanking(city);
+            if (rankedHotels == null) {
+                writeBytes(out, rawOut, Responses.noHotelFound());
+                return;
+            }
+            //hotels are only added at load, the city size can't change between the two calls
+            int total = rankedHotels.size();
+            List<Hotel> hotels = rankedHotels.range(offset, (int) Math.min((long) offset + limit, total));
+            List<HotelSnapshot> page = new ArrayList<>(hotels.size());
             for (Hotel hotel : hotels) {
-                out.println("Local Rank " + i + "/" + hotels.size());
-                out.println(hotel);
-                i++;
+                page.add(hotel.snapshot());
             }
-            out.println(END_OF_RESPONSE);
+            int to = offset + page.size();
+            writeBytes(out, rawOut, Responses.rankedHotelsPage(page, offset, total, to < total ? String.valueOf(to) : null));
+        }
+
+        //-1 when not a non negative number
+        private static int parseNonNegative(String value) {
+            try {
+                return Math.max(-1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void handleSearchHotel(PrintWriter out, OutputStream rawOut, String hotelName, String city) throws IOException {
+            Hotel hotel = hotelManager.searchHotelByNameAndCity(hotelName, city);
+            writeBytes(out, rawOut, hotel == null ? Responses.noHotelFound() : hotel.getSearchHotelResponse());
         }
 
-        private void handleSearchHotel(PrintWriter out, String hotelName, String city) {
+        //current position from the live ranking, may be ahead of the last published searchAllHotels
+        private void handleHotelRank(PrintWriter out, String hotelName, String city) {
             Hotel hotel = hotelManager.searchHotelByNameAndCity(hotelName, city);
-            if (hotel == null) {
+            RankedHotels rankedHotels = hotel == null ? null : hotelManager.getLiveRanking(hotel.getCity());
+            int rank = rankedHotels == null ? 0 : rankedHotels.rankOf(hotel.getId());
+            if (rank == 0) {
                 out.println("No hotel found");
+            } else {
+                out.println("Local Rank " + rank + "/" + rankedHotels.size());
+            }
+            out.println(END_OF_RESPONSE);
+        }
+
+        //keeps ordering with anything already printed to out, the caller flushes
+        private void writeBytes(PrintWriter out, OutputStream rawOut, byte[] response) throws IOException {
+            out.flush();
+            rawOut.write(response);
+        }
+
+        private void handleInsertReviews(PrintWriter out, String[] items) {
+            ReviewRequest[] reviews = new ReviewRequest[items.length];
+            for (int i = 0; i < items.length; i++) {
+                reviews[i] = parseReview(items[i]);
+            }
+            insertReviews(out, reviews);
+        }
+
+        //answers "Reviews added: k/n" and one status per review: ok, unconfirmed (added but not flushed to disk, don't
+        //resend), not_found, invalid (null entry) or error (nothing applied, can be resent)
+        private void insertReviews(PrintWriter out, ReviewRequest[] reviews) {
+            String username = session.getUsername();
+            if (username == null) {
+                out.println("User needs to be logged in to insert reviews");
                 out.println(END_OF_RESPONSE);
                 return;
             }
-            out.println(hotel);
+            if (reviews.length > MAX_BATCH_REVIEWS) {
+                out.println("Too many reviews, at most " + MAX_BATCH_REVIEWS + " per insertReviews");
+                out.println(END_OF_RESPONSE);
+                return;
+            }
+
+            String[] statuses = new String[reviews.length];
+            List<ReviewRequest> batch = new ArrayList<>(reviews.length);
+            List<Integer> batchPositions = new ArrayList<>(reviews.length);
+            for (int i = 0; i < reviews.length; i++) {
+                if (reviews[i] == null) {
+                    statuses[i] = "invalid";
+                } else {
+                    batch.add(reviews[i]);
+                    batchPositions.add(i);
+                }
+            }
+
+            int added = 0;
+            ReviewRequest.Status[] results = hotelManager.submitReviews(username, batch);
+            for (int i = 0; i < results.length; i++) {
+                switch (results[i]) {
+                    case ADDED:
+                        statuses[batchPositions.get(i)] = "ok";
+                        added++;
+                        break;
+                    case UNCONFIRMED:
+                        statuses[batchPositions.get(i)] = "unconfirmed";
+                        added++;
+                        break;
+                    case HOTEL_NOT_FOUND:
+                        statuses[batchPositions.get(i)] = "not_found";
+                        break;
+                    default:
+                        statuses[batchPositions.get(i)] = "error";
+                        break;
+                }
+            }
+            out.println("Reviews added: " + added + "/" + reviews.length);
+            out.println(String.join(",", statuses));
             out.println(END_OF_RESPONSE);
         }
 
-        private void handleLogout(PrintWriter out, String username) {
-            userSocketsLock.writeLock().lock();
-            loggedInUsersLock.writeLock().lock();
+        //null when the item is malformed or a score is out of range
+        private ReviewRequest parseReview(String item) {
+            String[] args = item.split(",");
+            if (args.length != 7) {
+                return null;
+            }
             try {
-                //check if user logged in
-                if (!userSockets.containsKey(username)) {
+                return newReview(args[0], args[1], Integer.parseInt(args[2].trim()), Integer.parseInt(args[3].trim()),
+                        Integer.parseInt(args[4].trim()), Integer.parseInt(args[5].trim()), Integer.parseInt(args[6].trim()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        //null when a score is out of range
+        private static ReviewRequest newReview(String hotelName, String city, int globalScore, int positionScore,
+                                               int cleaningScore, int serviceScore, int priceScore) {
+            if (globalScore < 1 || globalScore > 5 || positionScore < 1 || positionScore > 5 ||
+                    cleaningScore < 1 || cleaningScore > 5 || serviceScore < 1 ||
+                    serviceScore > 5 || priceScore < 1 || priceScore > 5) {
+                return null;
+            }
+            return new ReviewRequest(hotelName, city, globalScore, positionScore, cleaningScore, serviceScore, priceScore);
+        }
+
+        private void handleLogout(PrintWriter out, String username) {
+            switch (sessions.logout(session, username)) {
+                case NOT_LOGGED_IN:
                     out.println("User is not logged in");
-                    out.println(END_OF_RESPONSE);
-                    return;
-                }
-                //check if that user has logged in with this socket
-                if (!userSockets.get(username).equals(clientSocket)) {
+                    break;
+                case OTHER_SESSION:
+                    //that user has logged in with another socket
                     out.println("Socket not authenticated for this user");
-                    out.println(END_OF_RESPONSE);
-                    return;
-                }
-                String loggedUsername = loggedInUsers.remove(clientSocket);
-                if (loggedUsername != null) {
-                    userSockets.remove(loggedUsername);
-                }
-                out.println("Logout successful!");
-                out.println(END_OF_RESPONSE);
-            } finally {
-                loggedInUsersLock.writeLock().unlock();
-                userSocketsLock.writeLock().unlock();
+                    break;
+                default:
+                    out.println("Logout successful!");
+                    break;
             }
+            out.println(END_OF_RESPONSE);
         }
 
         private void handleLogin(PrintWriter out, String username, String password) {
-            userSocketsLock.writeLock().lock();
-            loggedInUsersLock.writeLock().lock();
-            try {
-                if (userSockets.containsKey(username)) {
-                    out.println("User already logged in");
-                } else {
-                    String result = userRegister.validateUser(username, password);
-                    if ("Login successful!".equals(result)) {
-                        loggedInUsers.putIfAbsent(clientSocket, username);
-                        userSockets.putIfAbsent(username, clientSocket);
-                    }
-                    out.println(result);
-                }
+            //cheap early answer, the atomic claim below is what actually decides
+            if (session.getUsername() != null || sessions.isLoggedIn(username)) {
+                out.println("User already logged in");
                 out.println(END_OF_RESPONSE);
-            } finally {
-                loggedInUsersLock.writeLock().unlock();
-                userSocketsLock.writeLock().unlock();
+                return;
             }
+            String result = userRegister.validateUser(username, password);
+            if ("Login successful!".equals(result) && !sessions.login(session, username)) {
+                result = "User already logged in";
+            }
+            out.println(result);
+            out.println(END_OF_RESPONSE);
         }
     }
 }
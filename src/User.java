@@ -2,12 +2,16 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class User {
     private final String username;
     private final String hashedPassword;
     private final String salt;
     private int reviewsCounter;
+    private long reviewLogLsn; //lsn of the last review log record counted, replay only counts newer ones
+    //counter and lsn change together, a save copies them together
+    private final transient ReentrantLock lock = new ReentrantLock();
 
     public User(String username, String password, int reviewsCounter) {
         this.username = username;
@@ -16,6 +20,21 @@ public class User {
         this.reviewsCounter = reviewsCounter;
     }
 
+    //for gson, so the lock is initialized
+    private User() {
+        this.username = null;
+        this.hashedPassword = null;
+        this.salt = null;
+    }
+
+    private User(User user) {
+        this.username = user.username;
+        this.hashedPassword = user.hashedPassword;
+        this.salt = user.salt;
+        this.reviewsCounter = user.reviewsCounter;
+        this.reviewLogLsn = user.reviewLogLsn;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -25,8 +44,39 @@ public class User {
         return this.hashedPassword.equals(hashedInputPassword);
     }
 
-    public void incrementReviewCounter() {
-        this.reviewsCounter++;
+    //counts reviews just logged, the last of them with lastLsn
+    public void addReviews(int count, long lastLsn) {
+        lock.lock();
+        try {
+            reviewsCounter += count;
+            reviewLogLsn = Math.max(reviewLogLsn, lastLsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //counts a replayed review unless the saved counter already includes it, a user logs its reviews in lsn order
+    public boolean replayReview(long lsn) {
+        lock.lock();
+        try {
+            if (lsn <= reviewLogLsn) {
+                return false;
+            }
+            reviewsCounter++;
+            reviewLogLsn = lsn;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public User copy() {
+        lock.lock();
+        try {
+            return new User(this);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public String getBadge() {
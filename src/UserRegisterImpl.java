@@ -1,38 +1,58 @@
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class UserRegisterImpl extends UnicastRemoteObject implements UserRegister {
+    private static final String SEGMENT_PREFIX = "users-";
+    private static final String SEGMENT_SUFFIX = ".json";
     private final String jsonFilePath;
-    private final Map<String, User> users;
+    private final Path segmentsPath; //directory of hash partitioned user files, saved instead of users.json when set
+    private final int loadThreads; //threads binding users.json records while loading
+    //users by partition (username hash), a single partition saved as users.json unless segmented
+    private final List<Map<String, User>> partitions;
+    private final Set<Integer> unsavedPartitions = ConcurrentHashMap.newKeySet(); //partitions changed since their last save
+    private final List<Path> staleSegments = new ArrayList<>(); //segments of another partition count, deleted once all are saved
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //the scheduled save and the one HotelManager runs before dropping review log segments never overlap
+    private final ReentrantLock saveLock = new ReentrantLock();
 
-    protected UserRegisterImpl(Properties properties) throws RemoteException {
+    protected UserRegisterImpl(Properties properties, MaintenanceScheduler scheduler) throws RemoteException {
         super();
         this.jsonFilePath = properties.getProperty("users.json.file.path");
-        this.users = new HashMap<>();
-        loadUsersFromJson();
+        String segmentsDirectory = properties.getProperty("users.segments.dir", "").trim();
+        this.segmentsPath = segmentsDirectory.isEmpty() ? null : Paths.get(segmentsDirectory);
+        int partitionCount = segmentsPath == null ? 1 : Integer.parseInt(properties.getProperty("users.segments", "16"));
+        this.partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new HashMap<>());
+        }
+        this.loadThreads = Integer.parseInt(properties.getProperty("load.threads", "1"));
+        loadUsers();
+        ServerStats.gauge("save.unsaved.userPartitions", unsavedPartitions::size);
         long savePeriod = Long.parseLong(properties.getProperty("save.period", "30000")); // Default to 30 secs
-        schedulePeriodicSave(savePeriod);
+        scheduler.schedule("saveUsers", savePeriod, true, this::saveUsers);
     }
 
     @Override
     public String registerUser(String username, String password) throws RemoteException {
         lock.writeLock().lock();
         try {
-            User oldUser = users.putIfAbsent(username, new User(username, password, 0));
+            int partition = partitionOf(username);
+            User oldUser = partitions.get(partition).putIfAbsent(username, new User(username, password, 0));
             if (oldUser != null) {
                 return "Username already exists!";
             }
+            unsavedPartitions.add(partition);
             return "User registered successfully!";
         } finally {
             lock.writeLock().unlock();
@@ -42,52 +62,144 @@ public class UserRegisterImpl extends UnicastRemoteObject implements UserRegiste
     public User getUser(String username) {
         lock.readLock().lock();
         try {
-            return users.get(username);
+            return partitions.get(partitionOf(username)).get(username);
         } finally {
             lock.readLock().unlock();
         }
     }
 
     public String validateUser(String username, String password) {
-        lock.readLock().lock();
+        User user = getUser(username);
+        if (user == null) {
+            return "Username does not exist!";
+        }
+        if (!user.validatePassword(password)) {
+            return "Invalid password!";
+        }
+        return "Login successful!";
+    }
+
+    //counters change outside the lock, a user only ever has one session updating them.
+    //called by HotelManager right after logging the reviews, the last of them with lastLsn
+    public void addReviews(String username, int count, long lastLsn) {
+        User user = getUser(username);
+        if (user == null) {
+            return;
+        }
+        user.addReviews(count, lastLsn);
+        unsavedPartitions.add(partitionOf(username));
+    }
+
+    //counts a review found in the review log unless the loaded counter already includes it
+    public void replayReview(String username, long lsn) {
+        User user = getUser(username);
+        if (user != null && user.replayReview(lsn)) {
+            unsavedPartitions.add(partitionOf(username));
+        }
+    }
+
+    private int partitionOf(String username) {
+        return (username.hashCode() & 0x7FFFFFFF) % partitions.size();
+    }
+
+    //writes the partitions changed since the last save, each copied under the lock and written without it.
+    //does nothing while no user registers or reviews. false if a partition could not be saved
+    boolean saveUsers() {
+        saveLock.lock();
         try {
-            if (!users.containsKey(username)) {
-                return "Username does not exist!";
-            }
-            if (!users.get(username).validatePassword(password)) {
-                return "Invalid password!";
-            }
-            return "Login successful!";
+            return savePartitions();
         } finally {
-            lock.readLock().unlock();
+            saveLock.unlock();
         }
     }
 
-    private void saveUsersToJson() {
+    private boolean savePartitions() {
+        if (unsavedPartitions.isEmpty()) {
+            System.out.println("User data unchanged.");
+            return true;
+        }
         System.out.println("Saving user data to disk...");
-        lock.readLock().lock();
-        try (FileWriter writer = new FileWriter(jsonFilePath)) {
-            Gson gson = new Gson();
-            gson.toJson(users, writer);
-            System.out.println("User data saved!");
-        } catch (IOException e) {
-            System.out.println("Error while saving user data!");
-            e.printStackTrace();
-        } finally {
-            lock.readLock().unlock();
+        //drained before copying, a change made meanwhile marks its partition again for the next save
+        List<Integer> toSave = new ArrayList<>();
+        Iterator<Integer> unsaved = unsavedPartitions.iterator();
+        while (unsaved.hasNext()) {
+            toSave.add(unsaved.next());
+            unsaved.remove();
+        }
+        Gson gson = new Gson();
+        int failed = 0;
+        if (segmentsPath != null) {
+            try {
+                Files.createDirectories(segmentsPath);
+            } catch (IOException e) {
+                unsavedPartitions.addAll(toSave);
+                System.out.println("Error while saving user data!");
+                e.printStackTrace();
+                return false;
+            }
+        }
+        for (int partition : toSave) {
+            Map<String, User> usersToSave = new HashMap<>();
+            lock.readLock().lock();
+            try {
+                //copies, a counter and the lsn it counts up to are saved together
+                for (Map.Entry<String, User> entry : partitions.get(partition).entrySet()) {
+                    usersToSave.put(entry.getKey(), entry.getValue().copy());
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            try {
+                AtomicFiles.write(partitionFile(partition), writer -> gson.toJson(usersToSave, writer));
+            } catch (IOException | RuntimeException e) {
+                unsavedPartitions.add(partition);
+                failed++;
+                System.out.println("Error while saving user data!");
+                e.printStackTrace();
+            }
+        }
+        if (failed == 0 && !staleSegments.isEmpty() && toSave.size() == partitions.size()) {
+            deleteStaleSegments();
         }
+        if (failed < toSave.size()) {
+            System.out.println("User data saved! (" + (toSave.size() - failed) + " partitions changed)");
+        }
+        return failed == 0;
+    }
+
+    private Path partitionFile(int partition) {
+        return segmentsPath == null ? Paths.get(jsonFilePath) : segmentsPath.resolve(SEGMENT_PREFIX + partition + SEGMENT_SUFFIX);
     }
 
-    private void loadUsersFromJson() {
+    //loads the segments if there are any, otherwise imports users.json. users are placed by their hash, so a changed
+    //partition count only means every partition is saved again by the first save
+    private void loadUsers() {
         lock.writeLock().lock();
         try {
-            String json = new String(Files.readAllBytes(Paths.get(jsonFilePath)));
-            Gson gson = new Gson();
-            Type type = new TypeToken<Map<String, User>>() {
-            }.getType();
-            Map<String, User> loadedUsers = gson.fromJson(json, type);
-            if (loadedUsers != null) {
-                users.putAll(loadedUsers);
+            //record by record, the file is never held in memory as a whole
+            long start = System.currentTimeMillis();
+            List<Path> files = segmentFiles();
+            boolean imported = files.isEmpty();
+            if (imported) {
+                files.add(Paths.get(jsonFilePath));
+            }
+            long loaded = 0;
+            for (Path file : files) {
+                loaded += JsonLoader.readObject(file, User.class, loadThreads,
+                        (username, user) -> partitions.get(partitionOf(username)).put(username, user));
+            }
+            if (segmentsPath != null && (imported || !staleSegments.isEmpty() || files.size() != partitions.size())) {
+                for (int i = 0; i < partitions.size(); i++) {
+                    unsavedPartitions.add(i);
+                }
+            }
+            System.out.println("Loaded " + loaded + " users from " + (imported ? jsonFilePath : segmentsPath) + " in " +
+                    (System.currentTimeMillis() - start) + " ms");
+            //temp files of saves a crash interrupted
+            Path json = Paths.get(jsonFilePath).toAbsolutePath();
+            AtomicFiles.deleteTempFiles(json.getParent(), json.getFileName().toString()::equals);
+            if (segmentsPath != null) {
+                AtomicFiles.deleteTempFiles(segmentsPath, name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -96,13 +208,41 @@ public class UserRegisterImpl extends UnicastRemoteObject implements UserRegiste
         }
     }
 
-    private void schedulePeriodicSave(long periodInMillis) {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                saveUsersToJson();
+    //existing segments, those of another partition count first so the current ones win for users saved in both
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> current = new ArrayList<>();
+        if (segmentsPath == null || !Files.isDirectory(segmentsPath)) {
+            return current;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(segmentsPath, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                String index = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    if (Integer.parseInt(index) < partitions.size()) {
+                        current.add(segment);
+                    } else {
+                        staleSegments.add(segment);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected file " + segment);
+                }
+            }
+        }
+        files.addAll(staleSegments);
+        files.addAll(current);
+        return files;
+    }
+
+    private void deleteStaleSegments() {
+        for (Path segment : staleSegments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                System.err.println("Could not delete stale user segment " + segment);
             }
-        }, periodInMillis, periodInMillis);
+        }
+        staleSegments.clear();
     }
 }